@@ -0,0 +1,91 @@
+package com.hmdp.config;
+
+import com.baomidou.mybatisplus.extension.service.IService;
+import com.hmdp.entity.Blog;
+import com.hmdp.entity.Shop;
+import com.hmdp.entity.User;
+import com.hmdp.service.IBlogService;
+import com.hmdp.service.IShopService;
+import com.hmdp.service.IUserService;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.RedisBloomFilter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+@Slf4j
+@Configuration
+public class BloomFilterConfig {
+
+    /**
+     * 每次从数据库读取的主键数量
+     */
+    private static final int SEED_PAGE_SIZE = 1000;
+
+    @Bean
+    public RedisBloomFilter shopBloomFilter(StringRedisTemplate stringRedisTemplate) {
+        return new RedisBloomFilter("shop", 1_000_000, BLOOM_FILTER_FPP, stringRedisTemplate);
+    }
+
+    @Bean
+    public RedisBloomFilter blogBloomFilter(StringRedisTemplate stringRedisTemplate) {
+        return new RedisBloomFilter("blog", 1_000_000, BLOOM_FILTER_FPP, stringRedisTemplate);
+    }
+
+    @Bean
+    public RedisBloomFilter userBloomFilter(StringRedisTemplate stringRedisTemplate) {
+        return new RedisBloomFilter("user", 10_000_000, BLOOM_FILTER_FPP, stringRedisTemplate);
+    }
+
+    /**
+     * 启动时注册布隆过滤器，并用数据库中已有的主键初始化
+     */
+    @Bean
+    public ApplicationRunner bloomFilterInitializer(
+            CacheClient cacheClient,
+            RedisBloomFilter shopBloomFilter, RedisBloomFilter blogBloomFilter, RedisBloomFilter userBloomFilter,
+            IShopService shopService, IBlogService blogService, IUserService userService) {
+        return args -> {
+            cacheClient.registerBloomFilter(CACHE_SHOP_KEY, shopBloomFilter);
+            cacheClient.registerBloomFilter(CACHE_USER_KEY, userBloomFilter);
+            cacheClient.registerBloomFilter(CACHE_BLOG_KEY, blogBloomFilter);
+            seed(shopBloomFilter, shopService, Shop::getId);
+            seed(blogBloomFilter, blogService, Blog::getId);
+            seed(userBloomFilter, userService, User::getId);
+        };
+    }
+
+    /**
+     * 按主键分页读取所有id写入过滤器，其它节点已经初始化完成则跳过
+     */
+    private <T> void seed(RedisBloomFilter bloomFilter, IService<T> service, Function<T, Long> idGetter) {
+        if (bloomFilter.isReady()) {
+            return;
+        }
+        long lastId = 0;
+        long total = 0;
+        while (true) {
+            // select id from tb_xxx where id > ? order by id limit ?
+            List<Long> ids = service.query()
+                    .select("id").gt("id", lastId).orderByAsc("id")
+                    .last("limit " + SEED_PAGE_SIZE).list()
+                    .stream().map(idGetter).collect(Collectors.toList());
+            if (ids.isEmpty()) {
+                break;
+            }
+            bloomFilter.putAll(ids);
+            total += ids.size();
+            lastId = ids.get(ids.size() - 1);
+        }
+        bloomFilter.markReady();
+        log.info("布隆过滤器初始化完成，共写入{}个id，{}", total, bloomFilter.getStats());
+    }
+}
@@ -0,0 +1,58 @@
+package com.hmdp.config;
+
+import com.hmdp.utils.BinaryCacheCodec;
+import com.hmdp.utils.CacheCodec;
+import com.hmdp.utils.CacheExpirePolicy;
+import com.hmdp.utils.CacheRebuildScheduler;
+import com.hmdp.utils.HotKeyDetector;
+import com.hmdp.utils.JsonCacheCodec;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class CacheConfig {
+
+    /**
+     * 缓存值编解码器，hmdp.cache.codec=json时使用原有的JSON格式
+     * 二进制编解码器可以读取JSON格式的旧数据
+     */
+    @Bean
+    public CacheCodec cacheCodec(@Value("${hmdp.cache.codec:binary}") String codec) {
+        return "json".equalsIgnoreCase(codec) ? new JsonCacheCodec() : new BinaryCacheCodec();
+    }
+
+    /**
+     * 缓存重建调度器，关闭应用时等待已提交的重建完成
+     */
+    @Bean(destroyMethod = "shutdown")
+    public CacheRebuildScheduler cacheRebuildScheduler(
+            @Value("${hmdp.cache.rebuild.threads:10}") int threads,
+            @Value("${hmdp.cache.rebuild.queue-capacity:1000}") int queueCapacity,
+            @Value("${hmdp.cache.rebuild.shutdown-timeout:30}") long shutdownTimeoutSeconds) {
+        return new CacheRebuildScheduler(threads, queueCapacity, shutdownTimeoutSeconds);
+    }
+
+    /**
+     * 热点key探测器，默认10秒内访问1000次即为热点key
+     */
+    @Bean
+    public HotKeyDetector hotKeyDetector(
+            @Value("${hmdp.cache.hot-key.window:10000}") long windowMillis,
+            @Value("${hmdp.cache.hot-key.buckets:10}") int bucketCount,
+            @Value("${hmdp.cache.hot-key.threshold:1000}") long threshold,
+            @Value("${hmdp.cache.hot-key.max-keys:100}") int maxHotKeys) {
+        return new HotKeyDetector(windowMillis, bucketCount, threshold, maxHotKeys);
+    }
+
+    /**
+     * 缓存过期策略，默认在传入的过期时间上随机增加0~10%
+     * 可以通过 hmdp.cache.expire.rules[cache:shop:].ttl=30m 等配置按前缀覆盖
+     */
+    @Bean
+    @ConfigurationProperties(prefix = "hmdp.cache.expire")
+    public CacheExpirePolicy cacheExpirePolicy() {
+        return new CacheExpirePolicy();
+    }
+}
@@ -0,0 +1,39 @@
+package com.hmdp.config;
+
+import com.hmdp.utils.IdGenerator;
+import com.hmdp.utils.RedisIdGenerator;
+import com.hmdp.utils.RedisScriptRegistry;
+import com.hmdp.utils.SnowflakeIdGenerator;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.ID_WORKER_TTL;
+
+@Configuration
+public class IdGeneratorConfig {
+
+    /**
+     * 订单等业务使用的id生成器，默认每个id访问一次redis（hmdp.id.mode=SEGMENT时按号段租用）
+     * hmdp.id.generator=snowflake 时在本地生成，只在租用和续期workerId时访问redis，关闭应用时释放workerId
+     */
+    @Bean
+    @Primary
+    public IdGenerator idGenerator(@Value("${hmdp.id.generator:redis}") String generator,
+                                   @Value("${hmdp.id.snowflake.max-backward:5}") long maxBackward,
+                                   RedisIdGenerator redisIdGenerator,
+                                   StringRedisTemplate stringRedisTemplate,
+                                   RedisScriptRegistry redisScriptRegistry) {
+        if (!"snowflake".equalsIgnoreCase(generator)) {
+            return redisIdGenerator;
+        }
+        SnowflakeIdGenerator snowflake = new SnowflakeIdGenerator(stringRedisTemplate, redisScriptRegistry,
+                TimeUnit.SECONDS.toMillis(ID_WORKER_TTL), maxBackward);
+        snowflake.start();
+        return snowflake;
+    }
+}
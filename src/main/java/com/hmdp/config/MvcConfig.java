@@ -1,19 +1,45 @@
 package com.hmdp.config;
 
+import com.hmdp.interceptor.AdminInterceptor;
 import com.hmdp.interceptor.LoginInterceptor;
+import com.hmdp.interceptor.RateLimitInterceptor;
 import com.hmdp.interceptor.RefreshInterceptor;
+import com.hmdp.utils.RateLimiter;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 
 import javax.annotation.Resource;
+import java.util.Set;
 
 @Configuration
 public class MvcConfig implements WebMvcConfigurer {
 
     @Resource
     private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private RateLimiter rateLimiter;
+
+    /**
+     * 关闭后不再检查接口上的@RateLimit
+     */
+    @Value("${hmdp.rate-limit.enabled:true}")
+    private boolean rateLimitEnabled;
+
+    /**
+     * 部署在会覆盖X-Forwarded-For的nginx之后时开启，按真实的客户端IP限流
+     */
+    @Value("${hmdp.rate-limit.trust-forwarded:false}")
+    private boolean trustForwarded;
+
+    /**
+     * 可以访问 /admin/** 运维接口的用户id，逗号分隔，未配置时所有用户都不能访问
+     */
+    @Value("${hmdp.admin.user-ids:}")
+    private Set<Long> adminIds;
+
     @Override
     public void addInterceptors(InterceptorRegistry registry) {
         registry.addInterceptor(new LoginInterceptor())
@@ -27,7 +53,18 @@ public class MvcConfig implements WebMvcConfigurer {
                         "/voucher/**"
                 ).order(1);
 
+        // 在登录拦截之后，只有管理员可以访问运维接口
+        registry.addInterceptor(new AdminInterceptor(adminIds))
+                .addPathPatterns("/admin/**")
+                .order(1);
+
         registry.addInterceptor(new RefreshInterceptor(stringRedisTemplate))
                 .order(0);
+
+        // 在登录拦截之后，按用户限流时可以取到当前用户
+        if (rateLimitEnabled) {
+            registry.addInterceptor(new RateLimitInterceptor(rateLimiter, trustForwarded))
+                    .order(2);
+        }
     }
 }
@@ -0,0 +1,35 @@
+package com.hmdp.config;
+
+import com.hmdp.utils.RedisScriptRegistry;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.util.List;
+
+import static com.hmdp.utils.RedisScriptRegistry.RATE_LIMIT;
+import static com.hmdp.utils.RedisScriptRegistry.RENEW;
+import static com.hmdp.utils.RedisScriptRegistry.SECKILL;
+import static com.hmdp.utils.RedisScriptRegistry.SECKILL_DEDUCT;
+import static com.hmdp.utils.RedisScriptRegistry.SECKILL_ROLLBACK;
+import static com.hmdp.utils.RedisScriptRegistry.SECKILL_SNAPSHOT;
+import static com.hmdp.utils.RedisScriptRegistry.UNLOCK;
+
+@Configuration
+public class RedisScriptConfig {
+
+    /**
+     * 注册 resources/lua 下的所有脚本，启动时预加载到redis
+     */
+    @Bean(initMethod = "preload")
+    public RedisScriptRegistry redisScriptRegistry(StringRedisTemplate stringRedisTemplate) {
+        return new RedisScriptRegistry(stringRedisTemplate)
+                .register(SECKILL, List.class)
+                .register(UNLOCK, Long.class)
+                .register(SECKILL_SNAPSHOT, List.class)
+                .register(SECKILL_ROLLBACK, Long.class)
+                .register(SECKILL_DEDUCT, Long.class)
+                .register(RENEW, Long.class)
+                .register(RATE_LIMIT, Long.class);
+    }
+}
@@ -0,0 +1,155 @@
+package com.hmdp.controller;
+
+
+import com.hmdp.dto.Result;
+import com.hmdp.service.ICacheWarmUpService;
+import com.hmdp.service.ISeckillReconcileService;
+import com.hmdp.service.IStreamRetentionService;
+import com.hmdp.service.IVoucherService;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.IdGenerator;
+import com.hmdp.utils.RateLimiter;
+import com.hmdp.utils.RedisScriptRegistry;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.annotation.Resource;
+
+/**
+ * <p>
+ * 运维监控控制器
+ * </p>
+ */
+@RestController
+@RequestMapping("/admin")
+public class AdminController {
+
+    @Resource
+    private CacheClient cacheClient;
+    @Resource
+    private ICacheWarmUpService cacheWarmUpService;
+    @Resource
+    private IVoucherService voucherService;
+    @Resource
+    private ISeckillReconcileService seckillReconcileService;
+    @Resource
+    private IStreamRetentionService streamRetentionService;
+    @Resource
+    private RedisScriptRegistry redisScriptRegistry;
+    @Resource
+    private IdGenerator idGenerator;
+    @Resource
+    private RateLimiter rateLimiter;
+
+    /**
+     * 查询缓存各层的命中率
+     * @return 本地缓存和redis缓存的命中统计
+     */
+    @GetMapping("/cache/stats")
+    public Result cacheStats() {
+        return Result.ok(cacheClient.getStats());
+    }
+
+    /**
+     * 查询当前的热点key
+     * @return 热点key的访问次数估算值以及是否已复制到本地
+     */
+    @GetMapping("/cache/hot-keys")
+    public Result hotKeys() {
+        return Result.ok(cacheClient.getHotKeys());
+    }
+
+    /**
+     * 查询各lua脚本的执行统计
+     * @return 脚本的调用次数、平均和最大耗时、NOSCRIPT重新加载次数
+     */
+    @GetMapping("/redis/scripts")
+    public Result scriptStats() {
+        return Result.ok(redisScriptRegistry.getStats());
+    }
+
+    /**
+     * 查询当前使用的id生成器的统计
+     * @return 号段租用次数，或workerId、租约剩余时间和时钟回拨次数
+     */
+    @GetMapping("/id/stats")
+    public Result idStats() {
+        return Result.ok(idGenerator.getStats());
+    }
+
+    /**
+     * 查询各接口限流的放行和拒绝次数
+     * @return 每个限制的速率、容量、放行和拒绝次数、redis执行失败次数
+     */
+    @GetMapping("/rate-limits")
+    public Result rateLimitStats() {
+        return Result.ok(rateLimiter.getStats());
+    }
+
+    /**
+     * 立即预热缓存，忽略集群中已预热的标记
+     * @return 各类数据的预热进度
+     */
+    @PostMapping("/cache/warm-up")
+    public Result warmUp() {
+        cacheWarmUpService.warmUp(true);
+        return Result.ok(cacheWarmUpService.getProgress());
+    }
+
+    /**
+     * 查询最近一次缓存预热的进度
+     */
+    @GetMapping("/cache/warm-up")
+    public Result warmUpProgress() {
+        return Result.ok(cacheWarmUpService.getProgress());
+    }
+
+    /**
+     * 查询秒杀券在redis中的剩余库存
+     * @param voucherId 优惠券id
+     * @return 总库存以及各分段的库存
+     */
+    @GetMapping("/seckill/stock/{voucherId}")
+    public Result seckillStock(@PathVariable("voucherId") Long voucherId) {
+        return Result.ok(voucherService.querySeckillStock(voucherId));
+    }
+
+    /**
+     * 查询订单消息stream的长度和占用内存
+     * @return 各分区stream及死信stream的统计
+     */
+    @GetMapping("/seckill/streams")
+    public Result streamStats() {
+        return Result.ok(streamRetentionService.getStats());
+    }
+
+    /**
+     * 立即归档并裁剪已确认的订单消息
+     * @return 裁剪后的统计
+     */
+    @PostMapping("/seckill/streams/trim")
+    public Result trimStreams() {
+        return Result.ok(streamRetentionService.trim());
+    }
+
+    /**
+     * 查询最近一次秒杀对账的结果
+     * @return 每张秒杀券的redis差值、数据库差值和处理中的订单数
+     */
+    @GetMapping("/seckill/reconcile")
+    public Result reconcileReport() {
+        return Result.ok(seckillReconcileService.getReport());
+    }
+
+    /**
+     * 立即执行一次秒杀对账
+     * @return 本次对账的结果
+     */
+    @PostMapping("/seckill/reconcile")
+    public Result reconcile() {
+        return Result.ok(seckillReconcileService.reconcile());
+    }
+}
@@ -8,6 +8,7 @@ import com.hmdp.entity.User;
 import com.hmdp.entity.UserInfo;
 import com.hmdp.service.IUserInfoService;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.RateLimit;
 import com.hmdp.utils.UserHolder;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.web.bind.annotation.*;
@@ -35,9 +36,11 @@ public class UserController {
     private IUserInfoService userInfoService;
 
     /**
-     * 发送手机验证码
+     * 发送手机验证码，每个IP每5秒一次，所有节点合计每秒最多100次
      */
     @PostMapping("code")
+    @RateLimit(key = RateLimit.Key.IP, scope = RateLimit.Scope.GLOBAL, permitsPerSecond = 0.2, burst = 3)
+    @RateLimit(key = RateLimit.Key.PATH, scope = RateLimit.Scope.GLOBAL, permitsPerSecond = 100, burst = 200)
     public Result sendCode(@RequestParam("phone") String phone, HttpSession session) {
         //发送短信验证码并保存验证码
         return userService.code(phone, session);
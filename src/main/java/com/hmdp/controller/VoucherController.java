@@ -45,6 +45,21 @@ public class VoucherController {
         return Result.ok(voucher.getId());
     }
 
+    /**
+     * 补充秒杀券库存
+     * @param voucherId 优惠券id
+     * @param count 补充的数量
+     * @return 无
+     */
+    @PostMapping("seckill/stock/{id}")
+    public Result addSeckillStock(@PathVariable("id") Long voucherId, @RequestParam("count") Integer count) {
+        if (count == null || count <= 0) {
+            return Result.fail("补充数量必须大于0！");
+        }
+        voucherService.addSeckillStock(voucherId, count);
+        return Result.ok();
+    }
+
     /**
      * 查询店铺的优惠券列表
      * @param shopId 店铺id
@@ -4,10 +4,14 @@ package com.hmdp.controller;
 import com.hmdp.dto.Result;
 import com.hmdp.service.impl.VoucherOrderServiceImpl;
 import com.hmdp.service.impl.VoucherServiceImpl;
+import com.hmdp.utils.RateLimit;
+import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.async.DeferredResult;
 
 import javax.annotation.Resource;
 
@@ -23,10 +27,30 @@ import javax.annotation.Resource;
 @RequestMapping("/voucher-order")
 public class VoucherOrderController {
 
+    private static final long MAX_POLL_TIMEOUT = 30000;
+
     @Resource
     private VoucherOrderServiceImpl voucherOrderService;
+    /**
+     * 秒杀下单，每个用户每秒1次，每个节点每秒最多5000次
+     */
     @PostMapping("seckill/{id}")
+    @RateLimit(permitsPerSecond = 1, burst = 3)
+    @RateLimit(key = RateLimit.Key.PATH, permitsPerSecond = 5000, burst = 5000)
     public Result seckillVoucher(@PathVariable("id") Long voucherId) {
         return voucherOrderService.seckillVoucher(voucherId);
     }
+
+    /**
+     * 查询秒杀订单的状态，支持长轮询
+     * @param orderId 秒杀返回的订单id
+     * @param timeout 订单未完成时最长等待的毫秒数，0代表立即返回，最多30秒
+     * @return 订单状态：QUEUED、PERSISTED、FAILED、TIMED_OUT、UNKNOWN
+     */
+    @GetMapping("status/{id}")
+    public DeferredResult<Result> queryOrderStatus(@PathVariable("id") Long orderId,
+                                                   @RequestParam(value = "timeout", defaultValue = "0") Long timeout) {
+        long wait = Math.min(Math.max(timeout, 1), MAX_POLL_TIMEOUT);
+        return voucherOrderService.queryOrderStatus(orderId, wait);
+    }
 }
@@ -52,6 +52,11 @@ public class SeckillVoucher implements Serializable {
      */
     private LocalDateTime endTime;
 
+    /**
+     * 秒杀库存在redis中拆分的分段数，创建后不会改变
+     */
+    private Integer segments;
+
     /**
      * 更新时间
      */
@@ -90,6 +90,18 @@ public class Voucher implements Serializable {
     @TableField(exist = false)
     private LocalDateTime endTime;
 
+    /**
+     * 秒杀库存在redis中拆分的分段数
+     */
+    @TableField(exist = false)
+    private Integer segments;
+
+    /**
+     * 每个用户的限购数量
+     */
+    @TableField(exist = false)
+    private Integer userLimit;
+
     /**
      * 创建时间
      */
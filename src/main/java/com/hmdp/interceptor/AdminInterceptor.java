@@ -0,0 +1,34 @@
+package com.hmdp.interceptor;
+
+import com.hmdp.dto.UserDTO;
+import com.hmdp.utils.UserHolder;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.Set;
+
+/**
+ * 运维接口只允许配置的管理员用户访问，在登录拦截之后执行
+ */
+public class AdminInterceptor implements HandlerInterceptor {
+
+    private final Set<Long> adminIds;
+
+    public AdminInterceptor(Set<Long> adminIds) {
+        this.adminIds = adminIds;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+        //1、判断当前用户是否是管理员
+        UserDTO user = UserHolder.getUser();
+        if (user == null || !adminIds.contains(user.getId())) {
+            //不是则拦截，设置403状态码
+            response.setStatus(403);
+            return false;
+        }
+        //是则放行
+        return true;
+    }
+}
@@ -0,0 +1,102 @@
+package com.hmdp.interceptor;
+
+import cn.hutool.core.util.StrUtil;
+import cn.hutool.json.JSONUtil;
+import com.hmdp.dto.Result;
+import com.hmdp.dto.UserDTO;
+import com.hmdp.utils.RateLimit;
+import com.hmdp.utils.RateLimiter;
+import com.hmdp.utils.UserHolder;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class RateLimitInterceptor implements HandlerInterceptor {
+
+    private static final int TOO_MANY_REQUESTS = 429;
+
+    private RateLimiter rateLimiter;
+    /**
+     * 是否信任X-Forwarded-For，只有nginx会覆盖该请求头时才能开启，否则客户端可以伪造IP绕过限流
+     */
+    private boolean trustForwarded;
+    /**
+     * 每个接口的限制及其名称
+     */
+    private final Map<Method, NamedLimit[]> limits = new ConcurrentHashMap<>();
+
+    public RateLimitInterceptor(RateLimiter rateLimiter, boolean trustForwarded) {
+        this.rateLimiter = rateLimiter;
+        this.trustForwarded = trustForwarded;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+        if (!(handler instanceof HandlerMethod)) {
+            return true;
+        }
+        // 1.查询接口上的限制，没有则放行
+        NamedLimit[] namedLimits = limits.computeIfAbsent(((HandlerMethod) handler).getMethod(), RateLimitInterceptor::resolve);
+        // 2.依次检查每个限制
+        for (NamedLimit limit : namedLimits) {
+            if (!rateLimiter.tryAcquire(limit.name, limit.rateLimit, key(limit.rateLimit, request))) {
+                // 3.超过限制，返回429
+                response.setStatus(TOO_MANY_REQUESTS);
+                response.setContentType("application/json;charset=UTF-8");
+                response.getWriter().write(JSONUtil.toJsonStr(Result.fail("请求过于频繁，请稍后再试")));
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String key(RateLimit rateLimit, HttpServletRequest request) {
+        switch (rateLimit.key()) {
+            case USER:
+                UserDTO user = UserHolder.getUser();
+                return user != null ? "user:" + user.getId() : "ip:" + clientIp(request);
+            case IP:
+                return "ip:" + clientIp(request);
+            default:
+                return "";
+        }
+    }
+
+    private String clientIp(HttpServletRequest request) {
+        if (trustForwarded) {
+            String forwarded = request.getHeader("X-Forwarded-For");
+            if (StrUtil.isNotBlank(forwarded)) {
+                return StrUtil.subBefore(forwarded, ",", false).trim();
+            }
+        }
+        return request.getRemoteAddr();
+    }
+
+    private static NamedLimit[] resolve(Method method) {
+        RateLimit[] rateLimits = method.getAnnotationsByType(RateLimit.class);
+        NamedLimit[] namedLimits = new NamedLimit[rateLimits.length];
+        for (int i = 0; i < rateLimits.length; i++) {
+            RateLimit rateLimit = rateLimits[i];
+            String name = StrUtil.isNotBlank(rateLimit.name()) ? rateLimit.name()
+                    : method.getDeclaringClass().getSimpleName() + "." + method.getName()
+                    + ":" + rateLimit.key().name().toLowerCase() + ":" + rateLimit.scope().name().toLowerCase();
+            namedLimits[i] = new NamedLimit(name, rateLimit);
+        }
+        return namedLimits;
+    }
+
+    private static class NamedLimit {
+        private final String name;
+        private final RateLimit rateLimit;
+
+        NamedLimit(String name, RateLimit rateLimit) {
+            this.name = name;
+            this.rateLimit = rateLimit;
+        }
+    }
+}
@@ -19,6 +19,11 @@ public interface IBlogService extends IService<Blog> {
      */
     Result queryBlogById(Long id);
 
+    /**
+     * 保存探店笔记
+     */
+    Result saveBlog(Blog blog);
+
     /**
      * 返回用户笔记的分页信息
      */
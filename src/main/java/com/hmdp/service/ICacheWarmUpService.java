@@ -0,0 +1,19 @@
+package com.hmdp.service;
+
+import java.util.Map;
+
+/**
+ * <p>
+ *  缓存预热服务类
+ * </p>
+ */
+public interface ICacheWarmUpService {
+
+    /**
+     * 预热逻辑过期的缓存
+     * @param force 为true时忽略集群中已预热的标记
+     */
+    void warmUp(boolean force);
+
+    Map<String, Object> getProgress();
+}
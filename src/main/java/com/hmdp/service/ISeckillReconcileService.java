@@ -0,0 +1,15 @@
+package com.hmdp.service;
+
+import java.util.Map;
+
+/**
+ * <p>
+ * 秒杀库存对账服务类
+ * </p>
+ */
+public interface ISeckillReconcileService {
+
+    Map<String, Object> reconcile();
+
+    Map<String, Object> getReport();
+}
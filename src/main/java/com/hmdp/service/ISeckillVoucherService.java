@@ -13,4 +13,9 @@ import com.baomidou.mybatisplus.extension.service.IService;
  */
 public interface ISeckillVoucherService extends IService<SeckillVoucher> {
 
+    void saveDescriptor(SeckillVoucher seckillVoucher, Integer userLimit);
+
+    int preloadDescriptors();
+
+    int querySegments(Long voucherId);
 }
@@ -0,0 +1,15 @@
+package com.hmdp.service;
+
+import java.util.Map;
+
+/**
+ * <p>
+ * 订单消息stream的保留、归档和裁剪服务类
+ * </p>
+ */
+public interface IStreamRetentionService {
+
+    Map<String, Object> trim();
+
+    Map<String, Object> getStats();
+}
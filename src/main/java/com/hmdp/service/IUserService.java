@@ -3,9 +3,12 @@ package com.hmdp.service;
 import com.baomidou.mybatisplus.extension.service.IService;
 import com.hmdp.dto.LoginFormDTO;
 import com.hmdp.dto.Result;
+import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.User;
 
 import javax.servlet.http.HttpSession;
+import java.util.Collection;
+import java.util.Map;
 
 /**
  * <p>
@@ -25,4 +28,10 @@ public interface IUserService extends IService<User> {
      * 根据用户id查询用户信息，返回DTO对象
      */
     Result queryUserData(Long id);
+
+    /**
+     * 根据用户id批量查询用户信息，优先走缓存
+     * @return 用户id到DTO对象的映射，按ids顺序排列
+     */
+    Map<Long, UserDTO> queryUserDTOByIds(Collection<Long> ids);
 }
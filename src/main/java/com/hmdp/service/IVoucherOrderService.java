@@ -3,6 +3,9 @@ package com.hmdp.service;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.VoucherOrder;
 import com.baomidou.mybatisplus.extension.service.IService;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import java.util.List;
 
 /**
  * <p>
@@ -17,4 +20,12 @@ public interface IVoucherOrderService extends IService<VoucherOrder> {
     Result seckillVoucher(Long voucherId);
 
     void createVoucherOrder(VoucherOrder voucherId);
+
+    void createVoucherOrders(List<VoucherOrder> voucherOrders);
+
+    DeferredResult<Result> queryOrderStatus(Long orderId, long timeout);
+
+    boolean hasPendingOrders();
+
+    long oldestPendingOrderTime();
 }
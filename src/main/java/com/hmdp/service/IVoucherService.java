@@ -4,6 +4,8 @@ import com.hmdp.dto.Result;
 import com.hmdp.entity.Voucher;
 import com.baomidou.mybatisplus.extension.service.IService;
 
+import java.util.Map;
+
 /**
  * <p>
  *  服务类
@@ -18,4 +20,8 @@ public interface IVoucherService extends IService<Voucher> {
 
 
     void addSeckillVoucher(Voucher voucher);
+
+    Map<String, Object> querySeckillStock(Long voucherId);
+
+    void addSeckillStock(Long voucherId, Integer count);
 }
@@ -6,23 +6,32 @@ import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.hmdp.dto.Result;
 import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.Blog;
-import com.hmdp.entity.User;
 import com.hmdp.mapper.BlogMapper;
 import com.hmdp.service.IBlogService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.RedisBloomFilter;
 import com.hmdp.utils.SystemConstants;
 import com.hmdp.utils.UserHolder;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 
 import javax.annotation.Resource;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
+import static com.hmdp.utils.RedisConstants.BLOG_LIKED_COUNT_KEY;
+import static com.hmdp.utils.RedisConstants.BLOG_LIKED_COUNT_TTL;
 import static com.hmdp.utils.RedisConstants.BLOG_LIKED_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_BLOG_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_BLOG_TTL;
 
 /**
  * <p>
@@ -39,6 +48,10 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
     private IUserService userService;
     @Resource
     private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private RedisBloomFilter blogBloomFilter;
+    @Resource
+    private CacheClient cacheClient;
 
     /**
      * 通过笔记id查询笔记信息
@@ -48,20 +61,40 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
         if (id == null) {
             return Result.fail("该笔记不存在！");
         }
-
-        // 1.查询blog
-        Blog blog = getById(id);
-        if (blog == null) {
+        // 1.查询blog，逻辑过期缓存，由布隆过滤器拦截不存在的id
+        Blog cached = cacheClient.queryWithLogicalExpire(
+                CACHE_BLOG_KEY, id, Blog.class, this::getById, CACHE_BLOG_TTL, TimeUnit.MINUTES);
+        if (cached == null) {
             return Result.fail("该笔记不存在！");
         }
+        // 缓存中的对象会被其它请求共享，复制一份再填充用户相关的信息
+        Blog blog = BeanUtil.copyProperties(cached, Blog.class);
         // 2.存在则查询相关的用户信息
         queryBlogUser(blog);
-        // 3.查询笔记是否被点赞
+        // 3.点赞数单独缓存，缓存的笔记内容中的点赞数不再使用
+        blog.setLiked(queryLiked(id));
+        // 4.查询笔记是否被点赞
         isBlogLiked(blog);
 
         return Result.ok(blog);
     }
 
+    /**
+     * 保存探店笔记
+     */
+    @Override
+    public Result saveBlog(Blog blog) {
+        // 获取登录用户
+        UserDTO user = UserHolder.getUser();
+        blog.setUserId(user.getId());
+        // 保存探店博文
+        save(blog);
+        // 写入布隆过滤器
+        blogBloomFilter.put(blog.getId());
+        // 返回id
+        return Result.ok(blog.getId());
+    }
+
     private void isBlogLiked(Blog blog) {
         // 1.获取登录用户
         UserDTO user = UserHolder.getUser();
@@ -76,8 +109,33 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
         blog.setIsLike(score != null);
     }
 
+    /**
+     * 查询笔记的点赞数，点赞时只删除点赞数的缓存，笔记内容的缓存不受影响
+     */
+    private Integer queryLiked(Long id) {
+        String key = BLOG_LIKED_COUNT_KEY + id;
+        String liked = stringRedisTemplate.opsForValue().get(key);
+        if (liked != null) {
+            return Integer.valueOf(liked);
+        }
+        // select liked from tb_blog where id = ?
+        Blog blog = query().select("liked").eq("id", id).one();
+        if (blog == null) {
+            return 0;
+        }
+        stringRedisTemplate.opsForValue().set(key, blog.getLiked().toString(), BLOG_LIKED_COUNT_TTL, TimeUnit.MINUTES);
+        return blog.getLiked();
+    }
+
     private void queryBlogUser(Blog blog) {
-        User user = userService.getById(blog.getUserId());
+        Map<Long, UserDTO> users = userService.queryUserDTOByIds(Collections.singletonList(blog.getUserId()));
+        fillBlogUser(blog, users.get(blog.getUserId()));
+    }
+
+    private void fillBlogUser(Blog blog, UserDTO user) {
+        if (user == null) {
+            return;
+        }
         blog.setName(user.getNickName());
         blog.setIcon(user.getIcon());
     }
@@ -93,15 +151,37 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
                 .page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE));
         // 获取当前页数据
         List<Blog> records = page.getRecords();
-        // 查询用户
-        records.forEach(blog -> {
-            this.queryBlogUser(blog);
-            // 查询笔记是否被点赞
-            this.isBlogLiked(blog);
-        });
+        if (records.isEmpty()) {
+            return Result.ok(records);
+        }
+        // 批量查询用户
+        List<Long> userIds = records.stream().map(Blog::getUserId).distinct().collect(Collectors.toList());
+        Map<Long, UserDTO> users = userService.queryUserDTOByIds(userIds);
+        records.forEach(blog -> fillBlogUser(blog, users.get(blog.getUserId())));
+        // 批量查询笔记是否被点赞
+        isBlogsLiked(records);
         return Result.ok(records);
     }
 
+    /**
+     * 通过管道一次查询多篇笔记的点赞状态
+     */
+    private void isBlogsLiked(List<Blog> blogs) {
+        UserDTO user = UserHolder.getUser();
+        if (user == null) {
+            return;
+        }
+        String userId = user.getId().toString();
+        List<Object> scores = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            blogs.forEach(blog -> conn.zScore(BLOG_LIKED_KEY + blog.getId(), userId));
+            return null;
+        });
+        for (int i = 0; i < blogs.size(); i++) {
+            blogs.get(i).setIsLike(scores.get(i) != null);
+        }
+    }
+
     /**
      * 实现点赞逻辑
      */
@@ -119,6 +199,7 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
             boolean isSuccess = update().setSql("liked = liked + 1").eq("id", id).update();
             if (isSuccess) {
                 stringRedisTemplate.opsForZSet().add(key, userId.toString(), System.currentTimeMillis());
+                stringRedisTemplate.delete(BLOG_LIKED_COUNT_KEY + id);
                 return Result.ok("点赞成功！");
             }
         } else {
@@ -126,6 +207,7 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
             boolean isSuccess = update().setSql("liked = liked - 1").eq("id", id).update();
             if (isSuccess) {
                 stringRedisTemplate.opsForZSet().remove(key, userId.toString());
+                stringRedisTemplate.delete(BLOG_LIKED_COUNT_KEY + id);
                 return Result.ok("已取消点赞！");
             }
         }
@@ -0,0 +1,215 @@
+package com.hmdp.service.impl;
+
+import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
+import com.hmdp.entity.Blog;
+import com.hmdp.entity.Shop;
+import com.hmdp.service.IBlogService;
+import com.hmdp.service.ICacheWarmUpService;
+import com.hmdp.service.IShopService;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.CacheMode;
+import com.hmdp.utils.RedisScriptRegistry;
+import com.hmdp.utils.SimpleRedisLock;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.Resource;
+import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.BiFunction;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * <p>
+ *  缓存预热服务实现类
+ *  启动时和定时任务中把店铺和热门笔记按页写入逻辑过期缓存，
+ *  集群中同一时刻只有一个节点预热，预热完成后写入标记，其它节点启动时直接跳过
+ * </p>
+ */
+@Slf4j
+@Service
+public class CacheWarmUpServiceImpl implements ICacheWarmUpService {
+
+    @Resource
+    private IShopService shopService;
+    @Resource
+    private IBlogService blogService;
+    @Resource
+    private CacheClient cacheClient;
+    @Resource
+    private RedisScriptRegistry redisScriptRegistry;
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Value("${hmdp.cache.shop-mode:PASS_THROUGH}")
+    private CacheMode shopCacheMode;
+    @Value("${hmdp.cache.warm-up.page-size:500}")
+    private int pageSize;
+    @Value("${hmdp.cache.warm-up.concurrency:4}")
+    private int concurrency;
+    @Value("${hmdp.cache.warm-up.hot-blog-count:1000}")
+    private int hotBlogCount;
+    /**
+     * 定时预热的间隔，需要小于缓存的逻辑过期时间
+     */
+    @Value("${hmdp.cache.warm-up.interval:1200000}")
+    private long interval;
+
+    private final AtomicBoolean running = new AtomicBoolean();
+    /**
+     * 每类数据最近一次预热的进度
+     */
+    private final Map<String, Map<String, Object>> progress = new ConcurrentHashMap<>();
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmUpOnStartup() {
+        warmUp(false);
+    }
+
+    @Scheduled(initialDelayString = "${hmdp.cache.warm-up.interval:1200000}",
+            fixedDelayString = "${hmdp.cache.warm-up.interval:1200000}")
+    public void warmUpOnSchedule() {
+        warmUp(false);
+    }
+
+    @Override
+    public void warmUp(boolean force) {
+        // 1.本节点正在预热则直接返回
+        if (!running.compareAndSet(false, true)) {
+            return;
+        }
+        // 2.获取集群锁，其它节点正在预热则直接返回
+        SimpleRedisLock lock = new SimpleRedisLock("cache:warm", stringRedisTemplate, redisScriptRegistry);
+        if (!lock.tryLock(TimeUnit.MINUTES.toSeconds(LOCK_CACHE_WARM_TTL))) {
+            running.set(false);
+            log.info("其它节点正在预热缓存");
+            return;
+        }
+        try {
+            // 3.店铺只有在逻辑过期模式下才需要预热
+            if (shopCacheMode == CacheMode.LOGICAL_EXPIRE) {
+                warmUp("shop", force, CACHE_SHOP_KEY, CACHE_SHOP_TTL, this::queryShopPage, Shop::getId);
+            }
+            // 4.按点赞数预热热门笔记
+            warmUp("blog", force, CACHE_BLOG_KEY, CACHE_BLOG_TTL, this::queryHotBlogPage, Blog::getId);
+        } finally {
+            lock.unLock();
+            running.set(false);
+        }
+    }
+
+    @Override
+    public Map<String, Object> getProgress() {
+        return new LinkedHashMap<>(progress);
+    }
+
+    /**
+     * 按页读取数据，交给写入线程通过管道批量写入redis，同时写入的页数不超过concurrency
+     * @param pageQuery 根据页码（从0开始）和上一页最后一条数据（第一页为null）查询下一页数据
+     */
+    private <T> void warmUp(String name, boolean force, String prefix, Long ttl,
+                            BiFunction<Integer, T, List<T>> pageQuery, Function<T, Long> idGetter) {
+        // 1.集群已经预热过则跳过
+        String markerKey = CACHE_WARM_KEY + name;
+        if (!force && Boolean.TRUE.equals(stringRedisTemplate.hasKey(markerKey))) {
+            log.info("{}缓存已由其它节点预热，跳过", name);
+            return;
+        }
+        Map<String, Object> status = new ConcurrentHashMap<>();
+        status.put("status", "running");
+        status.put("startTime", LocalDateTime.now().toString());
+        progress.put(name, status);
+        long begin = System.currentTimeMillis();
+        LongAdder written = new LongAdder();
+        AtomicInteger failedPages = new AtomicInteger();
+        Semaphore semaphore = new Semaphore(concurrency);
+        ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+        try {
+            // 2.分页读取，每页提交一个批量写入任务
+            List<T> page = pageQuery.apply(0, null);
+            int pages = 0;
+            while (!page.isEmpty()) {
+                Map<String, T> values = page.stream().collect(Collectors.toMap(
+                        t -> prefix + idGetter.apply(t), Function.identity(), (a, b) -> b, LinkedHashMap::new));
+                semaphore.acquire();
+                executor.execute(() -> {
+                    try {
+                        cacheClient.setBatchWithLogicalExpire(values, ttl, TimeUnit.MINUTES);
+                        written.add(values.size());
+                    } catch (Exception e) {
+                        failedPages.incrementAndGet();
+                        log.error("{}缓存预热写入失败", name, e);
+                    } finally {
+                        semaphore.release();
+                    }
+                });
+                status.put("written", written.sum());
+                if (++pages % 10 == 0) {
+                    log.info("{}缓存预热中，已写入{}条", name, written.sum());
+                }
+                page = pageQuery.apply(pages, page.get(page.size() - 1));
+            }
+            // 3.等待所有写入完成
+            semaphore.acquire(concurrency);
+            semaphore.release(concurrency);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failedPages.incrementAndGet();
+        } finally {
+            executor.shutdown();
+        }
+        long cost = System.currentTimeMillis() - begin;
+        status.put("written", written.sum());
+        status.put("failedPages", failedPages.get());
+        status.put("costMillis", cost);
+        status.put("status", failedPages.get() == 0 ? "done" : "failed");
+        log.info("{}缓存预热完成，共写入{}条，失败{}页，耗时{}ms", name, written.sum(), failedPages.get(), cost);
+        // 4.全部成功才写入已预热标记，标记在下一次定时预热之前过期
+        if (failedPages.get() == 0) {
+            stringRedisTemplate.opsForValue().set(markerKey, LocalDateTime.now().toString(),
+                    interval / 2, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * 按主键分页：select * from tb_shop where id > ? order by id limit ?
+     */
+    private List<Shop> queryShopPage(int pageNo, Shop last) {
+        long lastId = last == null ? 0 : last.getId();
+        return shopService.query().gt("id", lastId).orderByAsc("id").last("limit " + pageSize).list();
+    }
+
+    /**
+     * 按点赞数分页读取前hotBlogCount篇笔记
+     */
+    private List<Blog> queryHotBlogPage(int pageNo, Blog last) {
+        int remaining = hotBlogCount - pageNo * pageSize;
+        if (remaining <= 0) {
+            return Collections.emptyList();
+        }
+        List<Blog> records = blogService.query()
+                .orderByDesc("liked").orderByAsc("id")
+                .page(new Page<>(pageNo + 1, pageSize, false))
+                .getRecords();
+        return records.size() > remaining ? records.subList(0, remaining) : records;
+    }
+}
@@ -0,0 +1,419 @@
+package com.hmdp.service.impl;
+
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+import com.hmdp.entity.SeckillVoucher;
+import com.hmdp.entity.VoucherOrder;
+import com.hmdp.service.ISeckillReconcileService;
+import com.hmdp.service.ISeckillVoucherService;
+import com.hmdp.service.IVoucherOrderService;
+import com.hmdp.utils.RedisIdGenerator;
+import com.hmdp.utils.RedisScriptRegistry;
+import com.hmdp.utils.SeckillKeys;
+import com.hmdp.utils.SimpleRedisLock;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.RedisZSetCommands;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.LOCK_SECKILL_RECONCILE_TTL;
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_DLQ_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_RECONCILE_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_RECONCILE_LAST_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_VOUCHER_RETAIN_TTL;
+import static com.hmdp.utils.RedisScriptRegistry.SECKILL_SNAPSHOT;
+
+/**
+ * <p>
+ * 秒杀库存对账：比较redis与数据库中每张秒杀券的库存和订单数
+ * </p>
+ * 对每张未过期的秒杀券检查三个差值：
+ * redis差值 = 总库存 - redis剩余库存 - redis已售数量（各分段已售数量之和），脚本在一个分段中原子地扣库存和增加已售数量，正常为0；
+ * 数据库差值 = 总库存 - 数据库库存 - 订单数，同一个事务扣库存和插入订单，正常为0；
+ * 处理中 = redis已售数量 - 订单数，即还在消息队列中的订单，长时间不变说明有消息丢失。
+ * 订单按主键增量扫描：订单id的高位是时间戳，时间早于 now - settle、且早于消息队列和死信队列中最早的消息的订单
+ * 认为不会再有新插入，扫描进度和这部分订单的按券计数保存在redis中，每扫描一页保存一次，每次只需扫描进度之后的订单；
+ * 秒杀结束超过保留时间、不再对账的券的计数会被删除。
+ * 每张券上一次的对账结果保存在 seckill:reconcile:last 中，换节点对账时也能判断差值是否持续存在。
+ */
+@Slf4j
+@Service
+public class SeckillReconcileServiceImpl implements ISeckillReconcileService {
+
+    private static final String CURSOR_FIELD = "cursor";
+
+    @Resource
+    private ISeckillVoucherService seckillVoucherService;
+    @Resource
+    private IVoucherOrderService voucherOrderService;
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private RedisScriptRegistry redisScriptRegistry;
+    @Resource
+    private RedisIdGenerator redisIdGenerator;
+    @Resource
+    private PlatformTransactionManager transactionManager;
+
+    @Value("${hmdp.seckill.reconcile.enabled:true}")
+    private boolean enabled;
+    /**
+     * 是否自动修复连续两次对账结果相同的差值
+     */
+    @Value("${hmdp.seckill.reconcile.repair:false}")
+    private boolean repair;
+    /**
+     * 订单id的时间早于该时间（毫秒）后认为不会再有新插入，需大于消息重试的最长时间
+     */
+    @Value("${hmdp.seckill.reconcile.settle:300000}")
+    private long settle;
+    @Value("${hmdp.seckill.reconcile.page-size:1000}")
+    private int pageSize;
+    /**
+     * 处理中的订单数连续多少次对账没有变化时告警
+     */
+    @Value("${hmdp.seckill.reconcile.stall-runs:3}")
+    private int stallRuns;
+
+    /**
+     * 库存和未稳定的订单在一个只读的可重复读事务中读取，保证来自同一时刻；
+     * 已稳定的订单不会再变化，逐页读取，不占用长事务
+     */
+    private TransactionTemplate snapshotTemplate;
+
+    private final AtomicLong runCount = new AtomicLong();
+    private final AtomicLong driftCount = new AtomicLong();
+    private final AtomicLong repairCount = new AtomicLong();
+    private volatile Map<String, Object> lastReport = Collections.emptyMap();
+
+    @PostConstruct
+    private void init() {
+        snapshotTemplate = new TransactionTemplate(transactionManager);
+        snapshotTemplate.setReadOnly(true);
+        snapshotTemplate.setIsolationLevel(TransactionDefinition.ISOLATION_REPEATABLE_READ);
+    }
+
+    @Scheduled(initialDelayString = "${hmdp.seckill.reconcile.interval:60000}",
+            fixedDelayString = "${hmdp.seckill.reconcile.interval:60000}")
+    public void reconcileOnSchedule() {
+        if (enabled) {
+            reconcile();
+        }
+    }
+
+    @Override
+    public Map<String, Object> reconcile() {
+        // 1.获取集群锁，同一时刻只有一个节点对账
+        SimpleRedisLock lock = new SimpleRedisLock("seckill:reconcile", stringRedisTemplate, redisScriptRegistry);
+        if (!lock.tryLock(TimeUnit.MINUTES.toSeconds(LOCK_SECKILL_RECONCILE_TTL))) {
+            log.info("其它节点正在对账");
+            return lastReport;
+        }
+        try {
+            long begin = System.currentTimeMillis();
+            // 2.读取扫描进度
+            Map<Object, Object> checkpoint = stringRedisTemplate.opsForHash().entries(SECKILL_RECONCILE_KEY);
+            Snapshot snapshot = new Snapshot();
+            snapshot.settledCursor = Long.parseLong(checkpoint.getOrDefault(CURSOR_FIELD, "0").toString());
+            checkpoint.forEach((field, count) -> {
+                if (!CURSOR_FIELD.equals(field)) {
+                    snapshot.settledCounts.put(Long.valueOf(field.toString()), Long.valueOf(count.toString()));
+                }
+            });
+            // 3.逐页统计已稳定的订单并保存进度
+            scanSettled(snapshot);
+            // 4.读取数据库快照，统计进度之后的订单
+            snapshotTemplate.executeWithoutResult(status -> scanRecent(snapshot));
+            // 5.删除不再对账的券的计数
+            pruneSettledCounts(snapshot);
+            // 6.逐张券与redis比较
+            Map<Object, Object> lastResults = stringRedisTemplate.opsForHash().entries(SECKILL_RECONCILE_LAST_KEY);
+            List<Map<String, Object>> results = new ArrayList<>(snapshot.vouchers.size());
+            Map<String, String> resultFields = new HashMap<>();
+            for (SeckillVoucher voucher : snapshot.vouchers) {
+                Object last = lastResults.remove(voucher.getVoucherId().toString());
+                Map<String, Object> result = compare(voucher, snapshot.orderCount(voucher.getVoucherId()),
+                        last == null ? null : JSONUtil.parseObj(last.toString()));
+                if (result != null) {
+                    results.add(result);
+                    resultFields.put(voucher.getVoucherId().toString(), JSONUtil.toJsonStr(result));
+                }
+            }
+            // 7.保存本次对账结果，删除不再对账的券的结果
+            if (!resultFields.isEmpty()) {
+                stringRedisTemplate.opsForHash().putAll(SECKILL_RECONCILE_LAST_KEY, resultFields);
+            }
+            if (!lastResults.isEmpty()) {
+                stringRedisTemplate.opsForHash().delete(SECKILL_RECONCILE_LAST_KEY, lastResults.keySet().toArray());
+            }
+            runCount.incrementAndGet();
+            Map<String, Object> report = new LinkedHashMap<>();
+            report.put("time", LocalDateTime.now().toString());
+            report.put("costMillis", System.currentTimeMillis() - begin);
+            report.put("scannedOrders", snapshot.scanned);
+            report.put("cursor", snapshot.settledCursor);
+            report.put("vouchers", results);
+            lastReport = report;
+            return report;
+        } finally {
+            lock.unLock();
+        }
+    }
+
+    @Override
+    public Map<String, Object> getReport() {
+        Map<String, Object> report = new LinkedHashMap<>(lastReport);
+        report.put("runs", runCount.get());
+        report.put("drifts", driftCount.get());
+        report.put("repairs", repairCount.get());
+        report.put("repairEnabled", repair);
+        return report;
+    }
+
+    /**
+     * 按主键分页统计已稳定的订单，每页单独查询，统计后立即保存进度，首次对账中断后不必从头扫描
+     * 消费积压、超时重新认领、死信重放的订单写入数据库时id仍是下单时生成的，
+     * 进度不能越过消息队列中最早的未处理消息和死信队列中最早的原始消息
+     */
+    private void scanSettled(Snapshot snapshot) {
+        long settledTimestamp = redisIdGenerator.timestamp(LocalDateTime.now()) - TimeUnit.MILLISECONDS.toSeconds(settle);
+        long oldestPending = Math.min(voucherOrderService.oldestPendingOrderTime(), oldestDeadLetterTime());
+        if (oldestPending != Long.MAX_VALUE) {
+            // 订单id在写入消息之前生成，时间戳按秒取整，再提前一秒
+            LocalDateTime pendingTime = LocalDateTime.ofInstant(Instant.ofEpochMilli(oldestPending), ZoneId.systemDefault());
+            settledTimestamp = Math.min(settledTimestamp, redisIdGenerator.timestamp(pendingTime) - 1);
+        }
+        while (true) {
+            List<VoucherOrder> orders = pageOrders(snapshot.settledCursor);
+            // 1.订单id按时间递增，遇到第一个未稳定的订单即结束
+            Map<String, String> fields = new HashMap<>();
+            boolean reachedRecent = false;
+            for (VoucherOrder order : orders) {
+                if (order.getId() >>> 32 > settledTimestamp) {
+                    reachedRecent = true;
+                    break;
+                }
+                long count = snapshot.settledCounts.merge(order.getVoucherId(), 1L, Long::sum);
+                fields.put(order.getVoucherId().toString(), String.valueOf(count));
+                snapshot.settledCursor = order.getId();
+                snapshot.scanned++;
+            }
+            // 2.保存本页的进度和计数
+            if (!fields.isEmpty()) {
+                fields.put(CURSOR_FIELD, String.valueOf(snapshot.settledCursor));
+                stringRedisTemplate.opsForHash().putAll(SECKILL_RECONCILE_KEY, fields);
+            }
+            if (reachedRecent || orders.size() < pageSize) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * 死信队列中最早的原始消息的写入时间（毫秒），死信队列为空时返回Long.MAX_VALUE
+     * 死信消息人工处理后删除，通常很少，逐页读取全部消息
+     */
+    private long oldestDeadLetterTime() {
+        long oldest = Long.MAX_VALUE;
+        String start = "-";
+        while (true) {
+            // XRANGE stream.orders.dlq start + COUNT n
+            List<MapRecord<String, Object, Object>> records = stringRedisTemplate.opsForStream().range(
+                    SECKILL_ORDER_DLQ_KEY, Range.closed(start, "+"), RedisZSetCommands.Limit.limit().count(pageSize));
+            if (records == null || records.isEmpty()) {
+                return oldest;
+            }
+            for (MapRecord<String, Object, Object> record : records) {
+                Object recordId = record.getValue().get("recordId");
+                oldest = Math.min(oldest, recordId == null
+                        ? record.getId().getTimestamp() : RecordId.of(recordId.toString()).getTimestamp());
+            }
+            if (records.size() < pageSize) {
+                return oldest;
+            }
+            RecordId last = records.get(records.size() - 1).getId();
+            start = last.getTimestamp() + "-" + (last.getSequence() + 1);
+        }
+    }
+
+    /**
+     * 在同一个事务中读取秒杀券的库存和进度之后的订单
+     */
+    private void scanRecent(Snapshot snapshot) {
+        // 1.结束不超过保留时间的秒杀券及其数据库库存
+        snapshot.vouchers = seckillVoucherService.query()
+                .gt("end_time", LocalDateTime.now().minusDays(SECKILL_VOUCHER_RETAIN_TTL))
+                .list();
+        // 2.统计进度之后的订单
+        long lastId = snapshot.settledCursor;
+        while (true) {
+            List<VoucherOrder> orders = pageOrders(lastId);
+            for (VoucherOrder order : orders) {
+                snapshot.recentCounts.merge(order.getVoucherId(), 1L, Long::sum);
+                lastId = order.getId();
+            }
+            snapshot.scanned += orders.size();
+            if (orders.size() < pageSize) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * select id, voucher_id from tb_voucher_order where id > ? order by id limit n
+     */
+    private List<VoucherOrder> pageOrders(long lastId) {
+        return voucherOrderService.query()
+                .select("id", "voucher_id")
+                .gt("id", lastId)
+                .orderByAsc("id")
+                .last("limit " + pageSize)
+                .list();
+    }
+
+    /**
+     * 秒杀结束超过保留时间的券不再对账，也不会再有新订单，删除其计数
+     */
+    private void pruneSettledCounts(Snapshot snapshot) {
+        Set<Long> reconciling = snapshot.vouchers.stream().map(SeckillVoucher::getVoucherId).collect(Collectors.toSet());
+        List<Object> ended = new ArrayList<>();
+        snapshot.settledCounts.keySet().removeIf(voucherId -> {
+            if (reconciling.contains(voucherId)) {
+                return false;
+            }
+            ended.add(voucherId.toString());
+            return true;
+        });
+        if (!ended.isEmpty()) {
+            stringRedisTemplate.opsForHash().delete(SECKILL_RECONCILE_KEY, ended.toArray());
+            log.info("删除{}张已结束秒杀券的对账计数", ended.size());
+        }
+    }
+
+    /**
+     * 比较一张券在redis和数据库中的状态，差值连续两次相同时才认为不是并发造成的，按配置修复
+     * @param last 上一次的对账结果，没有时为null
+     */
+    private Map<String, Object> compare(SeckillVoucher voucher, long orders, JSONObject last) {
+        Long voucherId = voucher.getVoucherId();
+        // 1.读取redis中的总库存，逐个分段原子读取库存和已售数量
+        Object totalValue = stringRedisTemplate.opsForHash().get(SeckillKeys.descriptorKey(voucherId), "total");
+        if (totalValue == null) {
+            return null;
+        }
+        long total = Long.parseLong(totalValue.toString());
+        int segments = seckillVoucherService.querySegments(voucherId);
+        List<Long> segmentStocks = new ArrayList<>(segments);
+        long sold = 0;
+        for (int i = 0; i < segments; i++) {
+            List<Long> segment = redisScriptRegistry.execute(SECKILL_SNAPSHOT,
+                    Arrays.asList(SeckillKeys.stockKey(voucherId, i), SeckillKeys.soldKey(voucherId, i)));
+            segmentStocks.add(segment.get(0));
+            sold += segment.get(1);
+        }
+        long redisStock = segmentStocks.stream().mapToLong(Long::longValue).sum();
+        // 2.计算差值
+        long redisDrift = total - redisStock - sold;
+        long dbDrift = total - voucher.getStock() - orders;
+        long inFlight = sold - orders;
+        int stalled = last != null && inFlight > 0 && last.getLong("inFlight") == inFlight
+                && last.getLong("dbOrders") == orders ? last.getInt("stalledRuns") + 1 : 0;
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("voucherId", voucherId);
+        result.put("total", total);
+        result.put("redisStock", redisStock);
+        result.put("redisSold", sold);
+        result.put("dbStock", voucher.getStock());
+        result.put("dbOrders", orders);
+        result.put("redisDrift", redisDrift);
+        result.put("dbDrift", dbDrift);
+        result.put("inFlight", inFlight);
+        result.put("stalledRuns", stalled);
+        if (redisDrift != 0 || dbDrift != 0) {
+            driftCount.incrementAndGet();
+            log.warn("秒杀券{}对账不一致：redis差值{}，数据库差值{}，处理中{}", voucherId, redisDrift, dbDrift, inFlight);
+        }
+        if (stalled >= stallRuns) {
+            log.warn("秒杀券{}有{}个订单连续{}次对账未写入数据库，可能有消息丢失", voucherId, inFlight, stalled);
+        }
+        // 3.修复连续两次相同的差值
+        if (repair && last != null) {
+            if (redisDrift != 0 && last.getLong("redisDrift") == redisDrift) {
+                repairRedisStock(voucherId, segmentStocks, redisDrift);
+                result.put("redisRepaired", true);
+            }
+            if (dbDrift != 0 && last.getLong("dbDrift") == dbDrift) {
+                // 相对修改，不覆盖对账期间消费线程扣减的库存
+                seckillVoucherService.update()
+                        .setSql("stock = stock + " + dbDrift)
+                        .eq("voucher_id", voucherId)
+                        .update();
+                repairCount.incrementAndGet();
+                result.put("dbRepaired", true);
+                log.warn("已修复秒杀券{}的数据库库存：{}", voucherId, dbDrift);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 差值为正时加到第一个分段，为负时从库存最多的分段扣除
+     */
+    private void repairRedisStock(Long voucherId, List<Long> segmentStocks, long drift) {
+        int segment = 0;
+        if (drift < 0) {
+            for (int i = 1; i < segmentStocks.size(); i++) {
+                if (segmentStocks.get(i) > segmentStocks.get(segment)) {
+                    segment = i;
+                }
+            }
+        }
+        stringRedisTemplate.opsForValue().increment(SeckillKeys.stockKey(voucherId, segment), drift);
+        repairCount.incrementAndGet();
+        log.warn("已修复秒杀券{}的redis库存：{}", voucherId, drift);
+    }
+
+    private static class Snapshot {
+        private List<SeckillVoucher> vouchers;
+        /**
+         * 已稳定订单的扫描进度和按券计数（含之前保存的计数）
+         */
+        private long settledCursor;
+        private final Map<Long, Long> settledCounts = new HashMap<>();
+        /**
+         * 进度之后、尚未稳定的订单按券计数，每次重新统计
+         */
+        private final Map<Long, Long> recentCounts = new HashMap<>();
+        private long scanned;
+
+        long orderCount(Long voucherId) {
+            return settledCounts.getOrDefault(voucherId, 0L) + recentCounts.getOrDefault(voucherId, 0L);
+        }
+    }
+}
@@ -1,11 +1,34 @@
 package com.hmdp.service.impl;
 
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
 import com.hmdp.entity.SeckillVoucher;
+import com.hmdp.entity.VoucherOrder;
 import com.hmdp.mapper.SeckillVoucherMapper;
+import com.hmdp.mapper.VoucherOrderMapper;
 import com.hmdp.service.ISeckillVoucherService;
+import com.hmdp.service.IVoucherOrderService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.utils.SeckillKeys;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.Resource;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_VOUCHER_RETAIN_TTL;
+
 /**
  * <p>
  * 秒杀优惠券表，与优惠券是一对一关系 服务实现类
@@ -14,7 +37,241 @@ import org.springframework.stereotype.Service;
  * @author 虎哥
  * @since 2022-01-04
  */
+@Slf4j
 @Service
 public class SeckillVoucherServiceImpl extends ServiceImpl<SeckillVoucherMapper, SeckillVoucher> implements ISeckillVoucherService {
 
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private VoucherOrderMapper voucherOrderMapper;
+    @Resource
+    private IVoucherOrderService voucherOrderService;
+
+    /**
+     * 每个用户默认的限购数量
+     */
+    @Value("${hmdp.seckill.user-limit:1}")
+    private int defaultUserLimit;
+
+    /**
+     * 秒杀券的库存分段数，创建后不会改变，缓存在本地
+     */
+    private final Map<Long, Integer> segmentCache = new ConcurrentHashMap<>();
+
+    /**
+     * 新建秒杀券时写入描述信息 seckill:voucher:{id}（总库存、分段数），并把库存拆分到各分段：
+     * 每个分段保存一份描述信息副本 seckill:voucher:{id:i}（开始结束时间、限购数量）、
+     * 库存 seckill:stock:{id:i} 和已售数量 seckill:sold:{id:i}，秒杀脚本只依赖用户所在分段的key完成全部校验
+     * 分段数同时与库存一起保存在 seckill:segments:{id} 中，描述信息丢失后按原分段数重建
+     */
+    @Override
+    public void saveDescriptor(SeckillVoucher seckillVoucher, Integer userLimit) {
+        int segmentCount = segmentsOf(seckillVoucher);
+        int limit = userLimit == null ? defaultUserLimit : Math.max(1, userLimit);
+        Long voucherId = seckillVoucher.getVoucherId();
+        // 1.拆分库存，与已售数量、分段数一起写入
+        Map<String, String> stocks = splitStock(voucherId, seckillVoucher.getStock(), segmentCount);
+        for (String soldKey : SeckillKeys.soldKeys(voucherId, segmentCount)) {
+            stocks.put(soldKey, "0");
+        }
+        stocks.put(SeckillKeys.segmentsKey(voucherId), String.valueOf(segmentCount));
+        stringRedisTemplate.opsForValue().multiSet(stocks);
+        // 2.写入各分段的描述信息副本
+        Map<String, String> segmentDescriptor = syncFields(seckillVoucher);
+        segmentDescriptor.put("limit", String.valueOf(limit));
+        for (String segmentKey : SeckillKeys.segmentDescriptorKeys(voucherId, segmentCount)) {
+            stringRedisTemplate.opsForHash().putAll(segmentKey, segmentDescriptor);
+            expireAfterEnd(segmentKey, seckillVoucher.getEndTime());
+        }
+        // 3.写入描述信息
+        String key = SeckillKeys.descriptorKey(voucherId);
+        Map<String, String> descriptor = new HashMap<>();
+        descriptor.put("segments", String.valueOf(segmentCount));
+        descriptor.put("total", String.valueOf(seckillVoucher.getStock()));
+        stringRedisTemplate.opsForHash().putAll(key, descriptor);
+        expireAfterEnd(key, seckillVoucher.getEndTime());
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void preloadOnStartup() {
+        preloadDescriptors();
+    }
+
+    @Scheduled(initialDelayString = "${hmdp.seckill.preload.interval:60000}",
+            fixedDelayString = "${hmdp.seckill.preload.interval:60000}")
+    public void preloadOnSchedule() {
+        preloadDescriptors();
+    }
+
+    /**
+     * 把未结束的秒杀券的描述信息同步到redis，操作是幂等的，所有节点都可以执行
+     * 各分段副本的开始结束时间以数据库为准；限购数量只在缺失时补上默认值；
+     * 描述信息不存在时先重建分段数和总库存，重建失败的券本次不写入描述信息，秒杀脚本按不存在处理
+     */
+    @Override
+    public int preloadDescriptors() {
+        List<SeckillVoucher> vouchers = query().gt("end_time", LocalDateTime.now()).list();
+        int count = 0;
+        for (SeckillVoucher voucher : vouchers) {
+            Long voucherId = voucher.getVoucherId();
+            String key = SeckillKeys.descriptorKey(voucherId);
+            // 1.描述信息不存在时重建，存在时补上与库存一起保存的分段数
+            Object value = stringRedisTemplate.opsForHash().get(key, "segments");
+            int segments;
+            if (value == null) {
+                segments = rebuildDescriptor(voucher);
+                if (segments == 0) {
+                    continue;
+                }
+            } else {
+                segments = Integer.parseInt(value.toString());
+                stringRedisTemplate.opsForValue().setIfAbsent(SeckillKeys.segmentsKey(voucherId), value.toString());
+            }
+            expireAfterEnd(key, voucher.getEndTime());
+            // 2.同步各分段副本的时间窗口
+            Map<String, String> fields = syncFields(voucher);
+            for (String segmentKey : SeckillKeys.segmentDescriptorKeys(voucherId, segments)) {
+                stringRedisTemplate.opsForHash().putIfAbsent(segmentKey, "limit", String.valueOf(defaultUserLimit));
+                stringRedisTemplate.opsForHash().putAll(segmentKey, fields);
+                expireAfterEnd(segmentKey, voucher.getEndTime());
+            }
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * 重建描述信息中的分段数和总库存，只使用redis中一致的数据：
+     * 1.库存key还在时，按保存的分段数重建，总库存 = 各分段剩余库存 + 各分段已售数量；
+     * 2.库存key也已丢失时，只有消息队列中没有未写入数据库的订单，数据库的库存和订单才是完整的，
+     *   此时按数据库重新拆分库存、恢复已售数量和用户已购数量，否则等下一次同步
+     * @return 重建后的分段数，重建失败时返回0
+     */
+    private int rebuildDescriptor(SeckillVoucher voucher) {
+        Long voucherId = voucher.getVoucherId();
+        String key = SeckillKeys.descriptorKey(voucherId);
+        String segmentsValue = stringRedisTemplate.opsForValue().get(SeckillKeys.segmentsKey(voucherId));
+        if (segmentsValue == null) {
+            if (voucherOrderService.hasPendingOrders()) {
+                log.warn("秒杀券{}的库存已丢失，消息队列中还有未写入数据库的订单，暂不重建", voucherId);
+                return 0;
+            }
+            restoreFromDatabase(voucher);
+            segmentsValue = stringRedisTemplate.opsForValue().get(SeckillKeys.segmentsKey(voucherId));
+            if (segmentsValue == null) {
+                log.error("秒杀券{}的分段数未知，部分库存key仍然存在，需要人工处理", voucherId);
+                return 0;
+            }
+        }
+        int segments = Integer.parseInt(segmentsValue);
+        // 每个分段的库存与已售数量在同一个脚本中修改，二者之和就是该分段的总库存
+        long stock = sum(stringRedisTemplate.opsForValue().multiGet(SeckillKeys.stockKeys(voucherId, segments)));
+        long sold = sum(stringRedisTemplate.opsForValue().multiGet(SeckillKeys.soldKeys(voucherId, segments)));
+        stringRedisTemplate.opsForHash().putIfAbsent(key, "segments", String.valueOf(segments));
+        stringRedisTemplate.opsForHash().putIfAbsent(key, "total", String.valueOf(stock + sold));
+        log.info("重建秒杀券{}的描述信息：分段数{}，剩余库存{}，已售{}", voucherId, segments, stock, sold);
+        return segments;
+    }
+
+    /**
+     * 按数据库的库存、分段数和订单恢复redis中的库存、已售数量和用户已购数量，已存在的key不会被覆盖
+     * 订单不记录从哪个分段扣减，已售数量全部记在第0段，只保证总数正确
+     */
+    private void restoreFromDatabase(SeckillVoucher voucher) {
+        Long voucherId = voucher.getVoucherId();
+        int segments = segmentsOf(voucher);
+        // 1.用户已购数量 select user_id, count(*) from tb_voucher_order where voucher_id = ? group by user_id
+        List<Map<String, Object>> rows = voucherOrderMapper.selectMaps(new QueryWrapper<VoucherOrder>()
+                .select("user_id", "count(*) AS count")
+                .eq("voucher_id", voucherId)
+                .groupBy("user_id"));
+        long sold = 0;
+        for (Map<String, Object> row : rows) {
+            long userId = ((Number) row.get("user_id")).longValue();
+            long count = ((Number) row.get("count")).longValue();
+            stringRedisTemplate.opsForHash().putIfAbsent(SeckillKeys.orderKey(voucherId, SeckillKeys.homeSegment(userId, segments)),
+                    String.valueOf(userId), String.valueOf(count));
+            sold += count;
+        }
+        // 2.按数据库的剩余库存拆分，与已售数量、分段数一起写入
+        Map<String, String> stocks = splitStock(voucherId, voucher.getStock(), segments);
+        List<String> soldKeys = SeckillKeys.soldKeys(voucherId, segments);
+        for (int i = 0; i < segments; i++) {
+            stocks.put(soldKeys.get(i), i == 0 ? String.valueOf(sold) : "0");
+        }
+        stocks.put(SeckillKeys.segmentsKey(voucherId), String.valueOf(segments));
+        stringRedisTemplate.opsForValue().multiSetIfAbsent(stocks);
+        log.warn("秒杀券{}的库存已丢失，按数据库恢复：剩余库存{}，{}个用户的已购记录", voucherId, voucher.getStock(), rows.size());
+    }
+
+    private static long sum(List<String> values) {
+        return values.stream().mapToLong(value -> value == null ? 0 : Long.parseLong(value)).sum();
+    }
+
+    /**
+     * 查询秒杀券的库存分段数，分段数创建后不会改变，查询到后缓存在本地
+     * redis中的分段数丢失时以数据库中保存的为准，与重建后的库存key保持一致
+     */
+    @Override
+    public int querySegments(Long voucherId) {
+        Integer cached = segmentCache.get(voucherId);
+        if (cached != null) {
+            return cached;
+        }
+        Object value = stringRedisTemplate.opsForValue().get(SeckillKeys.segmentsKey(voucherId));
+        if (value == null) {
+            value = stringRedisTemplate.opsForHash().get(SeckillKeys.descriptorKey(voucherId), "segments");
+        }
+        int segments;
+        if (value != null) {
+            segments = Integer.parseInt(value.toString());
+        } else {
+            SeckillVoucher voucher = getById(voucherId);
+            if (voucher == null) {
+                return 1;
+            }
+            segments = segmentsOf(voucher);
+        }
+        segmentCache.put(voucherId, segments);
+        return segments;
+    }
+
+    private static int segmentsOf(SeckillVoucher voucher) {
+        return voucher.getSegments() == null ? 1 : Math.max(1, voucher.getSegments());
+    }
+
+    /**
+     * 库存平均拆分到各分段 seckill:stock:{id:i}
+     */
+    private static Map<String, String> splitStock(Long voucherId, int stock, int segments) {
+        Map<String, String> stocks = new LinkedHashMap<>();
+        for (int i = 0; i < segments; i++) {
+            int segmentStock = stock / segments + (i < stock % segments ? 1 : 0);
+            stocks.put(SeckillKeys.stockKey(voucherId, i), String.valueOf(segmentStock));
+        }
+        return stocks;
+    }
+
+    /**
+     * 以数据库为准的字段，时间统一保存为毫秒时间戳，脚本中直接与调用方传入的当前时间比较
+     */
+    private static Map<String, String> syncFields(SeckillVoucher voucher) {
+        Map<String, String> fields = new HashMap<>();
+        fields.put("begin", String.valueOf(toMillis(voucher.getBeginTime())));
+        fields.put("end", String.valueOf(toMillis(voucher.getEndTime())));
+        return fields;
+    }
+
+    /**
+     * 秒杀结束一段时间后描述信息自动过期
+     */
+    private void expireAfterEnd(String key, LocalDateTime endTime) {
+        long expireAt = toMillis(endTime) + TimeUnit.DAYS.toMillis(SECKILL_VOUCHER_RETAIN_TTL);
+        stringRedisTemplate.expire(key, expireAt - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    private static long toMillis(LocalDateTime time) {
+        return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
 }
@@ -6,6 +6,9 @@ import com.hmdp.mapper.ShopMapper;
 import com.hmdp.service.IShopService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.CacheMode;
+import com.hmdp.utils.RedisBloomFilter;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
@@ -28,20 +31,16 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
     private StringRedisTemplate stringRedisTemplate;
     @Resource
     private CacheClient cacheClient;
+    @Resource
+    private RedisBloomFilter shopBloomFilter;
+    @Value("${hmdp.cache.shop-mode:PASS_THROUGH}")
+    private CacheMode shopCacheMode;
 
     @Override
     public Result queryById(Long id) {
-        // 缓存穿透实现
-        Shop shop = cacheClient.queryWithPassThrough(
-                CACHE_SHOP_KEY, id, Shop.class, this::getById, CACHE_SHOP_TTL, TimeUnit.MINUTES);
-
-        // 互斥锁解决缓存击穿
-        /*Shop shop = cacheClient.queryWithMutex(
-                CACHE_SHOP_KEY, id, Shop.class, this::getById, CACHE_SHOP_TTL, TimeUnit.MINUTES);*/
-
-        // 逻辑过期解决缓存击穿
-        /*Shop shop = cacheClient.queryWithLogicalExpire(
-                CACHE_SHOP_KEY, id, Shop.class, this::getById, CACHE_SHOP_TTL, TimeUnit.SECONDS);*/
+        // 按配置的缓存模式查询：缓存穿透、互斥锁、逻辑过期（需要预热）或概率提前刷新
+        Shop shop = cacheClient.query(
+                shopCacheMode, CACHE_SHOP_KEY, id, Shop.class, this::getById, CACHE_SHOP_TTL, TimeUnit.MINUTES);
         if (shop == null) {
             return Result.fail("获取店铺信息失败！");
         }
@@ -49,6 +48,15 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
     }
 
 
+    @Override
+    public Result saveShop(Shop shop) {
+        // 1.写入数据库
+        save(shop);
+        // 2.写入布隆过滤器
+        shopBloomFilter.put(shop.getId());
+        return Result.ok(shop.getId());
+    }
+
     @Override
     @Transactional
     public Result update(Shop shop) {
@@ -58,8 +66,8 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         }
         //1.更新数据库
         updateById(shop);
-        //2.删除redis缓存
-        stringRedisTemplate.delete(CACHE_SHOP_KEY + id);
+        //2.删除redis缓存，并通知所有节点清除本地缓存
+        cacheClient.delete(CACHE_SHOP_KEY + id);
 
         return Result.ok();
     }
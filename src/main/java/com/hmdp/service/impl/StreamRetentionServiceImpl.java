@@ -0,0 +1,255 @@
+package com.hmdp.service.impl;
+
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+import com.hmdp.service.IStreamRetentionService;
+import com.hmdp.utils.RedisScriptRegistry;
+import com.hmdp.utils.SimpleRedisLock;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.RedisZSetCommands;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.StreamInfo;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.Resource;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPOutputStream;
+
+import static com.hmdp.utils.RedisConstants.LOCK_STREAM_RETENTION_TTL;
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_DLQ_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_STREAM_KEY;
+
+/**
+ * <p>
+ * 订单消息stream的保留策略
+ * </p>
+ * 每个分区stream中所有消费者组都已确认的消息（早于各组最小的pending消息和last-delivered-id），
+ * 并且超过保留时间的部分，先按范围写入本地gzip归档文件，再通过 XTRIM MINID 删除。
+ * 归档失败时不裁剪；归档文件写在持有集群锁的节点上。需要redis 6.2及以上版本
+ */
+@Slf4j
+@Service
+public class StreamRetentionServiceImpl implements IStreamRetentionService {
+
+    private static final int PAGE_SIZE = 1000;
+    private static final DateTimeFormatter DAY_FORMATTER = DateTimeFormatter.ofPattern("yyyyMMdd");
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private RedisScriptRegistry redisScriptRegistry;
+
+    @Value("${hmdp.seckill.stream.partitions:4}")
+    private int partitions;
+    /**
+     * 已确认的消息至少保留的时间（毫秒），便于排查问题
+     */
+    @Value("${hmdp.seckill.stream.retention.retain:600000}")
+    private long retain;
+    @Value("${hmdp.seckill.stream.retention.archive:true}")
+    private boolean archive;
+    @Value("${hmdp.seckill.stream.retention.archive-dir:archive/stream}")
+    private String archiveDir;
+
+    private final AtomicLong trimmedCount = new AtomicLong();
+    private final AtomicLong archivedFiles = new AtomicLong();
+    /**
+     * 每个stream最近一次裁剪的MINID
+     */
+    private final Map<String, String> lastMinIds = new ConcurrentHashMap<>();
+
+    @Scheduled(initialDelayString = "${hmdp.seckill.stream.retention.interval:300000}",
+            fixedDelayString = "${hmdp.seckill.stream.retention.interval:300000}")
+    public void trimOnSchedule() {
+        trim();
+    }
+
+    @Override
+    public Map<String, Object> trim() {
+        // 1.获取集群锁，归档文件只由一个节点写入
+        SimpleRedisLock lock = new SimpleRedisLock("stream:retention", stringRedisTemplate, redisScriptRegistry);
+        if (!lock.tryLock(TimeUnit.MINUTES.toSeconds(LOCK_STREAM_RETENTION_TTL))) {
+            log.info("其它节点正在裁剪订单stream");
+            return getStats();
+        }
+        try {
+            for (int k = 0; k < partitions; k++) {
+                String key = SECKILL_ORDER_STREAM_KEY + k;
+                try {
+                    trim(key);
+                } catch (Exception e) {
+                    log.error("裁剪{}失败", key, e);
+                }
+            }
+        } finally {
+            lock.unLock();
+        }
+        return getStats();
+    }
+
+    private void trim(String key) throws IOException {
+        // 1.计算可以删除的上界，MINID之前的消息会被删除
+        String minId = safeMinId(key);
+        if (minId == null) {
+            return;
+        }
+        // 2.归档 [-, minId) 范围内的消息
+        if (archive && !archiveRange(key, minId)) {
+            return;
+        }
+        // 3.XTRIM key MINID minId
+        Long removed = stringRedisTemplate.execute((RedisCallback<Long>) connection -> (Long) connection.execute("XTRIM",
+                key.getBytes(StandardCharsets.UTF_8), "MINID".getBytes(StandardCharsets.UTF_8),
+                minId.getBytes(StandardCharsets.UTF_8)));
+        lastMinIds.put(key, minId);
+        if (removed != null && removed > 0) {
+            trimmedCount.addAndGet(removed);
+            log.info("{}裁剪了{}条已确认的订单消息，MINID={}", key, removed, minId);
+        }
+    }
+
+    /**
+     * 所有消费者组都已确认的位置：有pending消息的组取最小的pending id，否则取last-delivered-id的下一个；
+     * 再与保留时间取较小值。没有消费者组时不裁剪
+     */
+    private String safeMinId(String key) {
+        if (!Boolean.TRUE.equals(stringRedisTemplate.hasKey(key))) {
+            return null;
+        }
+        StreamInfo.XInfoGroups groups = stringRedisTemplate.opsForStream().groups(key);
+        if (groups.isEmpty()) {
+            return null;
+        }
+        String minId = (System.currentTimeMillis() - retain) + "-0";
+        for (StreamInfo.XInfoGroup group : groups.stream().collect(Collectors.toList())) {
+            String groupMinId = group.pendingCount() > 0
+                    ? stringRedisTemplate.opsForStream().pending(key, group.groupName()).minMessageId()
+                    : next(group.lastDeliveredId());
+            if (compare(groupMinId, minId) < 0) {
+                minId = groupMinId;
+            }
+        }
+        return minId;
+    }
+
+    /**
+     * 分页读取 [-, minId) 的消息写入 {archiveDir}/{stream}/{yyyyMMdd}/{首条id}_{末条id}.jsonl.gz，
+     * 先写临时文件再改名，避免留下不完整的归档
+     * @return 是否可以裁剪
+     */
+    private boolean archiveRange(String key, String minId) throws IOException {
+        Path dir = Paths.get(archiveDir, key, LocalDate.now().format(DAY_FORMATTER));
+        Files.createDirectories(dir);
+        Path tmp = Files.createTempFile(dir, "segment", ".tmp");
+        String first = null;
+        String last = null;
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(
+                new GZIPOutputStream(Files.newOutputStream(tmp)), StandardCharsets.UTF_8))) {
+            String start = "-";
+            boolean reachedMinId = false;
+            while (!reachedMinId) {
+                // XRANGE key start minId COUNT n，上界包含minId，需要排除
+                List<MapRecord<String, Object, Object>> records = stringRedisTemplate.opsForStream().range(
+                        key, Range.closed(start, minId), RedisZSetCommands.Limit.limit().count(PAGE_SIZE));
+                if (records == null || records.isEmpty()) {
+                    break;
+                }
+                for (MapRecord<String, Object, Object> record : records) {
+                    String id = record.getId().getValue();
+                    if (id.equals(minId)) {
+                        reachedMinId = true;
+                        break;
+                    }
+                    JSONObject line = new JSONObject();
+                    line.set("id", id);
+                    line.set("fields", record.getValue());
+                    writer.write(JSONUtil.toJsonStr(line));
+                    writer.write('\n');
+                    if (first == null) {
+                        first = id;
+                    }
+                    last = id;
+                }
+                if (records.size() < PAGE_SIZE) {
+                    break;
+                }
+                start = next(records.get(records.size() - 1).getId().getValue());
+            }
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+        if (first == null) {
+            Files.deleteIfExists(tmp);
+            return true;
+        }
+        Files.move(tmp, dir.resolve(first + "_" + last + ".jsonl.gz"), StandardCopyOption.ATOMIC_MOVE);
+        archivedFiles.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * 查询各stream的长度、占用内存和裁剪进度
+     */
+    @Override
+    public Map<String, Object> getStats() {
+        List<String> keys = new ArrayList<>(partitions + 1);
+        for (int k = 0; k < partitions; k++) {
+            keys.add(SECKILL_ORDER_STREAM_KEY + k);
+        }
+        keys.add(SECKILL_ORDER_DLQ_KEY);
+        Map<String, Object> streams = new LinkedHashMap<>();
+        for (String key : keys) {
+            Map<String, Object> stream = new LinkedHashMap<>();
+            stream.put("length", stringRedisTemplate.opsForStream().size(key));
+            // MEMORY USAGE key
+            stream.put("memoryBytes", stringRedisTemplate.execute((RedisCallback<Object>) connection -> connection.execute(
+                    "MEMORY", "USAGE".getBytes(StandardCharsets.UTF_8), key.getBytes(StandardCharsets.UTF_8))));
+            stream.put("lastMinId", lastMinIds.get(key));
+            streams.put(key, stream);
+        }
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("streams", streams);
+        stats.put("trimmed", trimmedCount.get());
+        stats.put("archivedFiles", archivedFiles.get());
+        return stats;
+    }
+
+    /**
+     * 消息id的下一个id：毫秒时间戳-序号+1
+     */
+    private static String next(String id) {
+        int index = id.indexOf('-');
+        return id.substring(0, index) + "-" + (Long.parseLong(id.substring(index + 1)) + 1);
+    }
+
+    private static int compare(String a, String b) {
+        int i = a.indexOf('-');
+        int j = b.indexOf('-');
+        int result = Long.compare(Long.parseLong(a.substring(0, i)), Long.parseLong(b.substring(0, j)));
+        return result != 0 ? result : Long.compare(Long.parseLong(a.substring(i + 1)), Long.parseLong(b.substring(j + 1)));
+    }
+}
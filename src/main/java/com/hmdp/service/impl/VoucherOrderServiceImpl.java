@@ -1,6 +1,8 @@
 package com.hmdp.service.impl;
 
 import cn.hutool.core.bean.BeanUtil;
+import cn.hutool.core.exceptions.ExceptionUtil;
+import cn.hutool.core.lang.UUID;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.SeckillVoucher;
 import com.hmdp.entity.VoucherOrder;
@@ -8,30 +10,55 @@ import com.hmdp.mapper.VoucherOrderMapper;
 import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherOrderService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
-import com.hmdp.utils.RedisIdGenerator;
+import com.hmdp.utils.OrderStatusStore;
+import com.hmdp.utils.IdGenerator;
+import com.hmdp.utils.RedisScriptRegistry;
+import com.hmdp.utils.SeckillKeys;
 import com.hmdp.utils.SimpleRedisLock;
+import com.hmdp.utils.SoldOutRegistry;
 import com.hmdp.utils.UserHolder;
 import lombok.extern.slf4j.Slf4j;
 import org.redisson.api.RLock;
 import org.redisson.api.RedissonClient;
 import org.springframework.aop.framework.AopContext;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
-import org.springframework.core.io.ClassPathResource;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.RedisPipelineException;
+import org.springframework.data.redis.connection.RedisStreamCommands;
+import org.springframework.data.redis.connection.RedisZSetCommands;
+import org.springframework.data.redis.connection.StringRedisConnection;
 import org.springframework.data.redis.connection.stream.*;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
-import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.data.redis.core.script.RedisScript;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.web.context.request.async.DeferredResult;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_DLQ_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_STREAM_KEY;
+import static com.hmdp.utils.RedisScriptRegistry.SECKILL;
+import static com.hmdp.utils.RedisScriptRegistry.SECKILL_DEDUCT;
+import static com.hmdp.utils.RedisScriptRegistry.SECKILL_ROLLBACK;
 
 /**
  * <p>
@@ -50,86 +77,432 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
     @Resource
     private ISeckillVoucherService seckillVoucherService;
     @Resource
-    private RedisIdGenerator redisIdGenerator;
+    private IdGenerator idGenerator;
     @Resource
     private RedissonClient redissonClient;
     @Resource
     private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private SoldOutRegistry soldOutRegistry;
+    @Resource
+    private RedisScriptRegistry redisScriptRegistry;
+    @Resource
+    private OrderStatusStore orderStatusStore;
 
-    private static final DefaultRedisScript<Long> SECKILL_SCRIPT;
-    static {
-        SECKILL_SCRIPT = new DefaultRedisScript<>();
-        SECKILL_SCRIPT.setResultType(Long.class);
-        SECKILL_SCRIPT.setLocation(new ClassPathResource("seckill.lua"));
-    }
+    /**
+     * 订单消息的分区数，订单按用户id（或优惠券id）哈希写入 stream.orders.{k}
+     */
+    @Value("${hmdp.seckill.stream.partitions:4}")
+    private int partitions;
+    /**
+     * 分区依据：user 或 voucher
+     */
+    @Value("${hmdp.seckill.stream.partition-by:user}")
+    private String partitionBy;
+    @Value("${hmdp.seckill.consumer.group:g1}")
+    private String group;
+    /**
+     * 每个节点的消费线程数，每个线程都是消费者组中独立的消费者
+     */
+    @Value("${hmdp.seckill.consumer.workers:4}")
+    private int workers;
+    /**
+     * 每批最多处理的订单数，为1时逐条处理
+     */
+    @Value("${hmdp.seckill.consumer.batch-size:100}")
+    private int batchSize;
+    /**
+     * 凑满一批最多等待的时间（毫秒）
+     */
+    @Value("${hmdp.seckill.consumer.max-wait:50}")
+    private long maxWait;
+    /**
+     * 消费者空闲超过该时间（毫秒）的10倍且没有pending消息时从消费者组中删除，也是清理的检查间隔
+     */
+    @Value("${hmdp.seckill.consumer.claim-idle:60000}")
+    private long claimIdle;
+    /**
+     * 恢复线程扫描pending-list的间隔（毫秒）
+     */
+    @Value("${hmdp.seckill.recovery.interval:1000}")
+    private long recoveryInterval;
+    /**
+     * 第一次重试前消息至少空闲的时间（毫秒），之后每次投递翻倍
+     */
+    @Value("${hmdp.seckill.recovery.backoff:5000}")
+    private long recoveryBackoff;
+    @Value("${hmdp.seckill.recovery.max-backoff:60000}")
+    private long recoveryMaxBackoff;
+    /**
+     * 最多投递次数，达到后转入死信stream
+     */
+    @Value("${hmdp.seckill.recovery.max-attempts:5}")
+    private int maxAttempts;
+
+    /**
+     * 本实例的消费者名称前缀：进程号@主机名:随机串，保证多个节点、多次启动之间不重复
+     */
+    private final String consumerPrefix =
+            ManagementFactory.getRuntimeMXBean().getName() + ":" + UUID.fastUUID().toString(true).substring(0, 8);
 
     //创建线程池
-    private static final ExecutorService SECKILL_ORDER_EXECUTOR = Executors.newSingleThreadExecutor();
+    private ExecutorService seckillOrderExecutor;
+    private volatile boolean running = true;
+
     @PostConstruct
     private void init() {
-        //Bean初始化完成后，异步开启任务，监听队列
-        SECKILL_ORDER_EXECUTOR.submit(new VoucherOrderHandler());
+        // 1.创建所有分区的消费者组
+        for (int k = 0; k < partitions; k++) {
+            createGroup(streamKey(k));
+        }
+        // 2.Bean初始化完成后，异步开启任务，监听队列
+        AtomicInteger threadNumber = new AtomicInteger();
+        seckillOrderExecutor = Executors.newFixedThreadPool(workers + 1,
+                r -> new Thread(r, "seckill-order-" + threadNumber.incrementAndGet()));
+        for (int i = 0; i < workers; i++) {
+            seckillOrderExecutor.submit(new VoucherOrderHandler(consumerPrefix + "-" + i));
+        }
+        // 3.开启pending-list恢复线程
+        seckillOrderExecutor.submit(new OrderRecoveryHandler());
+    }
+
+    @PreDestroy
+    private void destroy() throws InterruptedException {
+        // 停止读取新消息，等待正在处理的批次完成
+        running = false;
+        seckillOrderExecutor.shutdown();
+        seckillOrderExecutor.awaitTermination(5, TimeUnit.SECONDS);
+    }
+
+    private static String streamKey(int partition) {
+        return SECKILL_ORDER_STREAM_KEY + partition;
+    }
+
+    /**
+     * XGROUP CREATE stream.orders.{k} g1 0 MKSTREAM，消费者组已存在则忽略
+     */
+    private void createGroup(String key) {
+        try {
+            stringRedisTemplate.execute((RedisCallback<String>) connection -> connection.streamCommands()
+                    .xGroupCreate(key.getBytes(StandardCharsets.UTF_8), group, ReadOffset.from("0"), true));
+        } catch (Exception e) {
+            if (!ExceptionUtil.getRootCauseMessage(e).contains("BUSYGROUP")) {
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * 消息队列中是否还有未写入数据库的订单：消费者组的pending-list不为空，或最后投递的消息之后还有消息
+     */
+    @Override
+    public boolean hasPendingOrders() {
+        return oldestPendingOrderTime() != Long.MAX_VALUE;
+    }
+
+    /**
+     * 消息队列中最早的未写入数据库的订单消息的写入时间（毫秒）：
+     * 有pending消息时取最小的pending id，否则取最后投递的消息之后的第一条；
+     * 所有分区都已处理完时返回Long.MAX_VALUE，消费者组不存在时无法判断，返回0
+     */
+    @Override
+    public long oldestPendingOrderTime() {
+        long oldest = Long.MAX_VALUE;
+        for (int k = 0; k < partitions; k++) {
+            String key = streamKey(k);
+            StreamInfo.XInfoGroup info = stringRedisTemplate.opsForStream().groups(key).stream()
+                    .filter(g -> group.equals(g.groupName()))
+                    .findFirst()
+                    .orElse(null);
+            if (info == null) {
+                return 0;
+            }
+            if (info.pendingCount() > 0) {
+                // XPENDING key group
+                PendingMessagesSummary pending = stringRedisTemplate.opsForStream().pending(key, group);
+                oldest = Math.min(oldest, RecordId.of(pending.minMessageId()).getTimestamp());
+                continue;
+            }
+            // XRANGE key lastDeliveredId + COUNT 2，下界包含最后投递的消息
+            List<MapRecord<String, Object, Object>> records = stringRedisTemplate.opsForStream().range(
+                    key, Range.closed(info.lastDeliveredId(), "+"), RedisZSetCommands.Limit.limit().count(2));
+            if (records == null) {
+                continue;
+            }
+            for (MapRecord<String, Object, Object> record : records) {
+                if (!record.getId().getValue().equals(info.lastDeliveredId())) {
+                    oldest = Math.min(oldest, record.getId().getTimestamp());
+                    break;
+                }
+            }
+        }
+        return oldest;
     }
 
     private class VoucherOrderHandler implements Runnable {
 
-        String queueName = "stream.orders";
+        private final Consumer consumer;
+        private final StreamOffset<String>[] newOffsets;
+
+        @SuppressWarnings("unchecked")
+        VoucherOrderHandler(String name) {
+            this.consumer = Consumer.from(group, name);
+            this.newOffsets = new StreamOffset[partitions];
+            for (int k = 0; k < partitions; k++) {
+                newOffsets[k] = StreamOffset.create(streamKey(k), ReadOffset.lastConsumed());
+            }
+        }
+
         public void run() {
-            while (true) {
+            while (running) {
                 try {
-                    // 1.获取消息队列中的订单消息 XREADGROUP GROUP g1 c1 COUNT 1 BLOCK 2000 STREAM stream.orders >
-                    List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
-                            Consumer.from("g1", "c1"),
-                            StreamReadOptions.empty().count(1).block(Duration.ofSeconds(2)),
-                            StreamOffset.create(queueName, ReadOffset.lastConsumed())
-                    );
+                    // 1.获取所有分区中的订单消息 XREADGROUP GROUP g1 c COUNT n BLOCK 2000 STREAMS stream.orders.0 ... > ...
+                    List<MapRecord<String, Object, Object>> records = readBatch();
                     // 判断队列中是否获取消息成功
-                    if (list == null || list.isEmpty()) {
+                    if (records.isEmpty()) {
                         //失败则再次尝试
                         continue;
                     }
-                    // 解析消息
-                    MapRecord<String, Object, Object> record = list.get(0);
-                    Map<Object, Object> values = record.getValue();
-                    VoucherOrder voucherOrder = BeanUtil.fillBeanWithMap(values, new VoucherOrder(), true);
-                    // 保存订单消息
-                    proxy.createVoucherOrder(voucherOrder);
-                    // 确认pending队列 SACK stream.orders g1 id
-                    stringRedisTemplate.opsForStream().acknowledge(queueName, "g1", record.getId());
+                    // 2.保存订单并确认消息，整批失败时逐条处理，有问题的消息留在pending-list中由恢复线程重试
+                    try {
+                        handleRecords(records);
+                    } catch (Exception e) {
+                        log.warn("批量保存订单失败，逐条重试", e);
+                        handleOneByOne(records);
+                    }
                 } catch (Exception e) {
-                    log.info("保存数据失败!", e);
-                    handlePendingList();
+                    // 读取消息失败（如redis不可用），稍后重试，避免空转
+                    log.info("读取订单消息失败!", e);
+                    sleep(1000);
                 }
             }
         }
 
-        private void handlePendingList() {
-            while (true) {
-                try {
-                    // 1.获取消息队列中的pending-list消息 XREADGROUP GROUP g1 c1 COUNT 1 STREAM stream.orders 0
-                    List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
-                            Consumer.from("g1", "c1"),
-                            StreamReadOptions.empty().count(1),
-                            StreamOffset.create(queueName, ReadOffset.from("0"))
-                    );
-                    // 判断pending-list中是否有未确认的消息
-                    if (list == null || list.isEmpty()) {
-                        //没有则结束
+        /**
+         * 阻塞等待第一条消息，之后在maxWait内继续读取，直到凑满batchSize条
+         * COUNT对每个分区分别生效，一批的数量可能略大于batchSize
+         */
+        private List<MapRecord<String, Object, Object>> readBatch() {
+            List<MapRecord<String, Object, Object>> records = new ArrayList<>(batchSize);
+            long deadline = 0;
+            while (running && records.size() < batchSize) {
+                Duration block;
+                if (records.isEmpty()) {
+                    block = Duration.ofSeconds(2);
+                } else {
+                    long remaining = deadline - System.currentTimeMillis();
+                    // BLOCK 0代表一直阻塞，剩余时间不足1ms时直接结束
+                    if (remaining < 1) {
                         break;
                     }
-                    // 有则确认消息
-                    MapRecord<String, Object, Object> record = list.get(0);
-                    Map<Object, Object> values = record.getValue();
-                    VoucherOrder voucherOrder = BeanUtil.fillBeanWithMap(values, new VoucherOrder(), true);
-                    // 保存订单消息
-                    proxy.save(voucherOrder);
-                    // 确认pending队列 SACK stream.orders g1 id
-                    stringRedisTemplate.opsForStream().acknowledge(queueName, "g1", record.getId());
+                    block = Duration.ofMillis(remaining);
+                }
+                List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
+                        consumer,
+                        StreamReadOptions.empty().count(batchSize - records.size()).block(block),
+                        newOffsets
+                );
+                if (list == null || list.isEmpty()) {
+                    break;
+                }
+                if (records.isEmpty()) {
+                    deadline = System.currentTimeMillis() + maxWait;
+                }
+                records.addAll(list);
+            }
+            return records;
+        }
+    }
+
+    /**
+     * 保存订单：批量模式下合并扣减库存、批量插入订单，按分区一次XACK确认
+     */
+    private void handleRecords(List<MapRecord<String, Object, Object>> records) {
+        // 1.解析订单
+        List<VoucherOrder> orders = new ArrayList<>(records.size());
+        for (MapRecord<String, Object, Object> record : records) {
+            orders.add(parseOrder(record.getValue()));
+        }
+        // 2.保存订单
+        if (batchSize > 1) {
+            proxy.createVoucherOrders(orders);
+        } else {
+            orders.forEach(proxy::createVoucherOrder);
+        }
+        // 3.确认消息 XACK stream.orders.{k} g1 id1 id2 ...
+        acknowledge(records);
+        // 4.更新订单状态
+        markPersisted(orders);
+    }
+
+    /**
+     * 逐条保存订单，订单已存在（重复投递）视为成功，失败的消息不确认，由恢复线程按退避时间重试
+     */
+    private void handleOneByOne(List<MapRecord<String, Object, Object>> records) {
+        List<MapRecord<String, Object, Object>> succeeded = new ArrayList<>(records.size());
+        List<VoucherOrder> orders = new ArrayList<>(records.size());
+        for (MapRecord<String, Object, Object> record : records) {
+            try {
+                VoucherOrder order = parseOrder(record.getValue());
+                saveOrder(order);
+                succeeded.add(record);
+                orders.add(order);
+            } catch (Exception e) {
+                log.warn("保存订单失败，消息{}留在pending-list中", record.getId(), e);
+            }
+        }
+        acknowledge(succeeded);
+        markPersisted(orders);
+    }
+
+    /**
+     * 保存单个订单，主键冲突说明之前的投递已经保存成功，事务已回滚，直接视为成功
+     */
+    private void saveOrder(VoucherOrder order) {
+        try {
+            proxy.createVoucherOrder(order);
+        } catch (DuplicateKeyException e) {
+            log.info("订单{}已存在，忽略重复消息", order.getId());
+        }
+    }
+
+    private void acknowledge(List<MapRecord<String, Object, Object>> records) {
+        records.stream()
+                .collect(Collectors.groupingBy(MapRecord::getStream,
+                        Collectors.mapping(MapRecord::getId, Collectors.toList())))
+                .forEach((stream, ids) ->
+                        stringRedisTemplate.opsForStream().acknowledge(stream, group, ids.toArray(new RecordId[0])));
+    }
+
+    /**
+     * 更新订单状态，失败不影响已保存的订单，客户端查询到超时后以订单列表为准
+     */
+    private void markPersisted(List<VoucherOrder> orders) {
+        try {
+            orderStatusStore.markPersisted(orders);
+        } catch (Exception e) {
+            log.error("更新订单状态失败", e);
+        }
+    }
+
+    /**
+     * 解析订单消息，消息中只有时间戳和序列号时拼接出订单id
+     */
+    private static VoucherOrder parseOrder(Map<?, ?> values) {
+        VoucherOrder voucherOrder = BeanUtil.fillBeanWithMap(values, new VoucherOrder(), true);
+        if (voucherOrder.getId() == null && values.containsKey("seq")) {
+            voucherOrder.setId(IdGenerator.compose(
+                    Long.parseLong(values.get("ts").toString()), Long.parseLong(values.get("seq").toString())));
+        }
+        return voucherOrder;
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * pending-list恢复线程，与消费线程并行运行，有问题的消息不会阻塞新订单的处理
+     * 按XPENDING中的投递次数计算退避时间：第n次投递后至少空闲 backoff * 2^(n-1) 毫秒才会重试，
+     * 宕机节点的消息同样在空闲超过退避时间后被认领；投递次数达到上限的消息转入死信stream并标记订单失败
+     */
+    private class OrderRecoveryHandler implements Runnable {
+
+        private final String consumerName = consumerPrefix + "-recovery";
+        private long lastCleanTime;
+
+        public void run() {
+            while (running) {
+                try {
+                    for (int k = 0; k < partitions && running; k++) {
+                        recover(streamKey(k));
+                    }
+                    // 清理已经没有pending消息的失效消费者
+                    if (System.currentTimeMillis() - lastCleanTime >= claimIdle) {
+                        lastCleanTime = System.currentTimeMillis();
+                        for (int k = 0; k < partitions; k++) {
+                            removeIdleConsumers(streamKey(k));
+                        }
+                    }
                 } catch (Exception e) {
                     log.info("处理pending-list订单异常!", e);
                 }
+                sleep(recoveryInterval);
+            }
+        }
+
+        /**
+         * XPENDING stream.orders.{k} g1 - + n，处理所有消费者中已到退避时间的消息
+         */
+        private void recover(String key) {
+            PendingMessages pending = stringRedisTemplate.opsForStream()
+                    .pending(key, group, Range.unbounded(), batchSize * 10L);
+            for (PendingMessage message : pending) {
+                long deliveries = message.getTotalDeliveryCount();
+                long idle = message.getElapsedTimeSinceLastDelivery().toMillis();
+                long backoff = Math.min(recoveryBackoff << Math.min(deliveries - 1, 20), recoveryMaxBackoff);
+                if (idle < backoff) {
+                    continue;
+                }
+                // XCLAIM保证多个节点中只有一个能认领成功，认领后投递次数加1
+                List<StringRecord> claimed = stringRedisTemplate.execute((RedisCallback<List<StringRecord>>) connection ->
+                        ((StringRedisConnection) connection).xClaim(key, group, consumerName,
+                                RedisStreamCommands.XClaimOptions.minIdleMs(backoff).ids(message.getId())));
+                if (claimed == null || claimed.isEmpty()) {
+                    // 已被其它节点认领，或消息已被删除
+                    continue;
+                }
+                StringRecord record = claimed.get(0);
+                if (deliveries >= maxAttempts) {
+                    deadLetter(key, record, deliveries);
+                } else {
+                    retry(key, record);
+                }
+            }
+        }
+
+        private void retry(String key, StringRecord record) {
+            try {
+                VoucherOrder order = parseOrder(record.getValue());
+                saveOrder(order);
+                stringRedisTemplate.opsForStream().acknowledge(key, group, record.getId());
+                orderStatusStore.markPersisted(Collections.singletonList(order));
+                log.info("重试保存订单成功：{}", order.getId());
+            } catch (Exception e) {
+                log.warn("重试保存订单失败，消息{}将在退避后再次重试", record.getId(), e);
+            }
+        }
+
+        /**
+         * 转入死信stream stream.orders.dlq，确认原消息并标记订单失败，库存和已购记录由对账修复
+         */
+        private void deadLetter(String key, StringRecord record, long deliveries) {
+            Map<String, String> values = new HashMap<>(record.getValue());
+            values.put("stream", key);
+            values.put("recordId", record.getId().getValue());
+            values.put("deliveries", String.valueOf(deliveries));
+            stringRedisTemplate.opsForStream().add(SECKILL_ORDER_DLQ_KEY, values);
+            stringRedisTemplate.opsForStream().acknowledge(key, group, record.getId());
+            log.error("订单消息{}投递{}次仍失败，已转入死信队列：{}", record.getId(), deliveries, record.getValue());
+            try {
+                orderStatusStore.markFailed(Collections.singletonList(parseOrder(record.getValue())));
+            } catch (Exception e) {
+                log.error("更新订单状态失败", e);
             }
         }
+
+        private void removeIdleConsumers(String key) {
+            stringRedisTemplate.opsForStream().consumers(key, group).forEach(info -> {
+                if (info.pendingCount() == 0 && info.idleTimeMs() > claimIdle * 10
+                        && !info.consumerName().startsWith(consumerPrefix)) {
+                    stringRedisTemplate.opsForStream().deleteConsumer(key, Consumer.from(group, info.consumerName()));
+                }
+            });
+        }
     }
     /**
      * 创建阻塞队列以及保存订单数据
@@ -153,24 +526,149 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
      */
     @Override
     public Result seckillVoucher(Long voucherId) {
+        long requestTime = System.currentTimeMillis();
+        // 已售罄则直接返回，不访问redis
+        if (soldOutRegistry.isSoldOut(voucherId)) {
+            return Result.fail("库存不足！");
+        }
         //获取用户id
         Long userId = UserHolder.getUser().getId();
-        //获取订单id
-        long orderId = redisIdGenerator.nextId("order");
+        //选择订单消息的分区
+        long partitionKey = "voucher".equals(partitionBy) ? voucherId : userId;
+        String streamKey = streamKey(Math.floorMod(Long.hashCode(partitionKey), partitions));
 
-        Long result = stringRedisTemplate.execute(
-                SECKILL_SCRIPT,
-                Collections.emptyList(),
-                voucherId.toString(), userId.toString(), String.valueOf(orderId));
-        // 1.判断库存是否充足以及用户是否下过单
-        int r = result.intValue();
-        if (r != 0) {
-            return Result.fail(r == 1 ? "库存不足！" : "您已下过单，请勿重复下单！");
+        //时间窗口、限购、库存的校验都在脚本中完成，脚本只访问用户所在分段的key，集群中位于同一个槽
+        int segments = seckillVoucherService.querySegments(voucherId);
+        int home = SeckillKeys.homeSegment(userId, segments);
+        List<Long> result = redisScriptRegistry.execute(SECKILL, Arrays.asList(
+                        SeckillKeys.segmentDescriptorKey(voucherId, home), SeckillKeys.orderKey(voucherId, home),
+                        SeckillKeys.stockKey(voucherId, home), SeckillKeys.soldKey(voucherId, home)),
+                userId.toString(), String.valueOf(requestTime), segments > 1 ? "1" : "0");
+        // 1.判断是否有购买资格
+        int r = result.get(0).intValue();
+        int segment = home;
+        if (r == 6) {
+            // 用户所在分段售罄，已占住限购名额，依次从其它分段扣减，都售罄时归还名额
+            segment = deductFromOtherSegments(voucherId, segments, home);
+            if (segment < 0) {
+                releasePurchase(voucherId, home, userId);
+            }
+            r = segment < 0 ? 1 : 0;
+        }
+        switch (r) {
+            case 0:
+                break;
+            case 1:
+                soldOutRegistry.markSoldOut(voucherId, requestTime);
+                return Result.fail("库存不足！");
+            case 2:
+                return Result.fail("您已下过单，请勿重复下单！");
+            case 3:
+                return Result.fail("抢购时间还未开始！");
+            case 4:
+                return Result.fail("抢购时间已经结束！");
+            default:
+                return Result.fail("优惠券不存在！");
+        }
+        // 2.有购买资格后才生成订单id，记录订单状态并发送订单消息
+        long orderId;
+        try {
+            orderId = idGenerator.nextId("order");
+            enqueueOrder(streamKey, orderId, userId, voucherId);
+        } catch (Exception e) {
+            // 3.订单消息未写入，归还扣减分段的库存和用户所在分段的限购次数
+            log.error("发送订单消息失败，归还秒杀券{}的库存", voucherId, e);
+            redisScriptRegistry.execute(SECKILL_ROLLBACK,
+                    Arrays.asList(SeckillKeys.stockKey(voucherId, segment), SeckillKeys.soldKey(voucherId, segment)));
+            releasePurchase(voucherId, home, userId);
+            return Result.fail("系统繁忙，请稍后重试！");
         }
-
         return Result.ok(orderId);
     }
 
+    /**
+     * 从用户所在分段之后的分段依次扣减库存，每个分段单独执行脚本
+     * @return 扣减成功的分段，全部售罄时返回-1
+     */
+    private int deductFromOtherSegments(Long voucherId, int segments, int home) {
+        for (int i = 1; i < segments; i++) {
+            int segment = (home + i) % segments;
+            Long deducted = redisScriptRegistry.execute(SECKILL_DEDUCT,
+                    Arrays.asList(SeckillKeys.stockKey(voucherId, segment), SeckillKeys.soldKey(voucherId, segment)));
+            if (deducted != null && deducted == 1) {
+                return segment;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 归还用户所在分段中记录的已购数量
+     */
+    private void releasePurchase(Long voucherId, int home, Long userId) {
+        stringRedisTemplate.opsForHash().increment(SeckillKeys.orderKey(voucherId, home), userId.toString(), -1);
+    }
+
+    /**
+     * 一次往返记录订单状态为排队中并写入订单消息 XADD stream.orders.{k} * userId 1 voucherId 1 id 1
+     * 订单状态和消息队列与秒杀券不在同一个槽，不放在秒杀脚本中；只有消息写入失败才需要归还库存
+     */
+    private void enqueueOrder(String streamKey, long orderId, Long userId, Long voucherId) {
+        Map<String, String> values = new HashMap<>(4);
+        values.put("userId", userId.toString());
+        values.put("voucherId", voucherId.toString());
+        values.put("id", String.valueOf(orderId));
+        try {
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection conn = (StringRedisConnection) connection;
+                OrderStatusStore.markQueued(conn, orderId, userId);
+                conn.xAdd(streamKey, values);
+                return null;
+            });
+        } catch (RedisPipelineException e) {
+            // 消息已写入时只是订单状态写入失败，客户端查询到超时后以订单列表为准
+            List<Object> results = e.getPipelineResult();
+            Object added = results.isEmpty() ? e : results.get(results.size() - 1);
+            if (added instanceof Exception) {
+                throw e;
+            }
+            log.warn("记录订单{}的状态失败", orderId, e);
+        }
+    }
+
+    /**
+     * 长轮询查询订单状态：订单已写入数据库或失败时立即返回，否则等待状态变化，超时后返回当前状态
+     * 只能查询自己的订单
+     * @param timeout 最长等待时间（毫秒）
+     */
+    @Override
+    public DeferredResult<Result> queryOrderStatus(Long orderId, long timeout) {
+        DeferredResult<Result> deferred = new DeferredResult<>(timeout);
+        // 1.校验订单归属，订单状态中记录了用户id，状态过期后以数据库中的订单为准
+        Long userId = UserHolder.getUser().getId();
+        Long owner = orderStatusStore.owner(orderId);
+        if (owner == null) {
+            VoucherOrder order = query().select("user_id").eq("id", orderId).one();
+            owner = order == null ? null : order.getUserId();
+        }
+        if (!userId.equals(owner)) {
+            deferred.setResult(Result.fail("订单不存在！"));
+            return deferred;
+        }
+        // 2.等待订单进入最终状态
+        Runnable cancel = orderStatusStore.await(orderId, status -> deferred.setResult(statusResult(orderId, status)));
+        deferred.onTimeout(() -> deferred.setResult(statusResult(orderId, orderStatusStore.get(orderId))));
+        deferred.onCompletion(cancel);
+        return deferred;
+    }
+
+    private static Result statusResult(Long orderId, OrderStatusStore.Status status) {
+        Map<String, Object> result = new HashMap<>(2);
+        result.put("orderId", orderId);
+        result.put("status", status);
+        return Result.ok(result);
+    }
+
     @Transactional
     @Override
     public void createVoucherOrder(VoucherOrder voucher) {
@@ -181,6 +679,23 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
         save(voucher);
     }
 
+    /**
+     * 批量创建订单，库存和一人一单已在redis中校验
+     */
+    @Transactional
+    @Override
+    public void createVoucherOrders(List<VoucherOrder> voucherOrders) {
+        // 1.按优惠券合并扣减库存 update tb_seckill_voucher set stock = stock - k where voucher_id = ?
+        Map<Long, Long> counts = voucherOrders.stream()
+                .collect(Collectors.groupingBy(VoucherOrder::getVoucherId, Collectors.counting()));
+        counts.forEach((voucherId, count) -> seckillVoucherService.update()
+                .setSql("stock = stock - " + count)
+                .eq("voucher_id", voucherId)
+                .update());
+        // 2.一条insert语句插入所有订单
+        getBaseMapper().insertBatch(voucherOrders);
+    }
+
     /*
         基于阻塞队列实现异步创建订单
      */
@@ -201,7 +716,7 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
         // 2.有购买资格，将下单信息放入阻塞队列
         VoucherOrder voucherOrder = new VoucherOrder();
         // 2.1 订单id
-        long orderId = redisIdGenerator.nextId("order");
+        long orderId = idGenerator.nextId("order");
         voucherOrder.setId(orderId);
         // 2.2 用户id
         voucherOrder.setUserId(userId);
@@ -236,7 +751,7 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
         // 获取当前线程的用户id
         Long userId = UserHolder.getUser().getId();
         // 创建锁对象
-        //SimpleRedisLock lock = new SimpleRedisLock("order:voucher:" + userId, stringRedisTemplate);
+        //SimpleRedisLock lock = new SimpleRedisLock("order:voucher:" + userId, stringRedisTemplate, redisScriptRegistry);
         RLock lock = redissonClient.getLock("lock:order:voucher:" + userId);
         // 判断是否成功获取锁
         boolean isLock = lock.tryLock();
@@ -279,7 +794,7 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
         }
         // 5.创建订单
         VoucherOrder voucherOrder = new VoucherOrder();
-        long orderId = redisIdGenerator.nextId("order");
+        long orderId = idGenerator.nextId("order");
         voucherOrder.setId(orderId);
         voucherOrder.setUserId(userId);
         voucherOrder.setVoucherId(voucherId);
@@ -7,14 +7,20 @@ import com.hmdp.mapper.VoucherMapper;
 import com.hmdp.entity.SeckillVoucher;
 import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherService;
+import com.hmdp.utils.SeckillKeys;
+import com.hmdp.utils.SoldOutRegistry;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
-
-import static com.hmdp.utils.RedisConstants.SECKILL_STOCK_KEY;
+import java.util.Map;
 
 /**
  * <p>
@@ -33,6 +39,15 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
+    @Resource
+    private SoldOutRegistry soldOutRegistry;
+
+    /**
+     * 秒杀库存默认的分段数，1代表不分段
+     */
+    @Value("${hmdp.seckill.stock.segments:1}")
+    private int defaultSegments;
+
     @Override
     public Result queryVoucherOfShop(Long shopId) {
         // 查询优惠券信息
@@ -52,8 +67,77 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
         seckillVoucher.setStock(voucher.getStock());
         seckillVoucher.setBeginTime(voucher.getBeginTime());
         seckillVoucher.setEndTime(voucher.getEndTime());
+        // 分段数与秒杀信息一起保存，redis中的库存丢失后按原分段数恢复
+        seckillVoucher.setSegments(voucher.getSegments() == null ? defaultSegments : Math.max(1, voucher.getSegments()));
         seckillVoucherService.save(seckillVoucher);
-        // 保存优惠券库存信息到redis中
-        stringRedisTemplate.opsForValue().set(SECKILL_STOCK_KEY + voucher.getId(), voucher.getStock().toString());
+        // 事务提交后保存秒杀券描述信息和库存到redis中，事务回滚时redis中不会出现数据库中没有的券
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCommit() {
+                seckillVoucherService.saveDescriptor(seckillVoucher, voucher.getUserLimit());
+            }
+        });
+    }
+
+    /**
+     * 补充秒杀库存，数量按分段平均加到各分段上，最后清除所有节点的售罄标记
+     * redis只在事务提交后更新，事务回滚时不会多出数据库中没有的库存
+     */
+    @Override
+    @Transactional
+    public void addSeckillStock(Long voucherId, Integer count) {
+        // 1.更新数据库库存
+        boolean success = seckillVoucherService.update()
+                .setSql("stock = stock + " + count)
+                .eq("voucher_id", voucherId)
+                .update();
+        if (!success) {
+            return;
+        }
+        // 2.事务提交后更新redis
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCommit() {
+                addRedisStock(voucherId, count);
+            }
+        });
+    }
+
+    private void addRedisStock(Long voucherId, int count) {
+        // 1.更新redis库存
+        int segments = seckillVoucherService.querySegments(voucherId);
+        for (int i = 0; i < segments; i++) {
+            int segmentCount = count / segments + (i < count % segments ? 1 : 0);
+            if (segmentCount > 0) {
+                stringRedisTemplate.opsForValue().increment(SeckillKeys.stockKey(voucherId, i), segmentCount);
+            }
+        }
+        stringRedisTemplate.opsForHash().increment(SeckillKeys.descriptorKey(voucherId), "total", count);
+        // 2.清除售罄标记
+        soldOutRegistry.reset(voucherId);
+    }
+
+    /**
+     * 汇总各分段的剩余库存
+     */
+    @Override
+    public Map<String, Object> querySeckillStock(Long voucherId) {
+        // 1.查询分段数
+        int segments = seckillVoucherService.querySegments(voucherId);
+        // 2.一次MGET查询所有分段的库存
+        List<String> stocks = stringRedisTemplate.opsForValue().multiGet(SeckillKeys.stockKeys(voucherId, segments));
+        List<Integer> segmentStocks = new ArrayList<>(segments);
+        int total = 0;
+        for (String stock : stocks) {
+            int n = stock == null ? 0 : Integer.parseInt(stock);
+            segmentStocks.add(n);
+            total += n;
+        }
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("voucherId", voucherId);
+        result.put("segments", segments);
+        result.put("stock", total);
+        result.put("segmentStocks", segmentStocks);
+        return result;
     }
 }
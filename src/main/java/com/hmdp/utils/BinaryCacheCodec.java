@@ -0,0 +1,396 @@
+package com.hmdp.utils;
+
+import cn.hutool.json.JSONUtil;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 紧凑的二进制编解码器
+ * 格式：魔数(1) + 版本(1) + 逻辑过期时间(8，按系统时区换算的epoch毫秒，0代表无) + 重建耗时毫秒(4) + 类结构哈希(4) + 空值位图 + 字段数据
+ * 字段按名称排序依次写入，整数使用变长编码；LocalDateTime字段不带时区，按本地时间的秒数和纳秒原样保存；
+ * 不是以魔数开头的数据交给JSON编解码器处理，兼容旧缓存
+ */
+public class BinaryCacheCodec implements CacheCodec {
+
+    private static final byte MAGIC = (byte) 0xCB;
+    // 版本3起逻辑过期时间按系统时区换算，之前版本的数据解码失败后重建
+    private static final byte VERSION = 3;
+    private static final int HEADER_LENGTH = 18;
+
+    private final CacheCodec fallback = new JsonCacheCodec();
+    private final Map<Class<?>, Schema> schemas = new ConcurrentHashMap<>();
+
+    @Override
+    public byte[] encode(Object value) {
+        return write(value, 0, 0);
+    }
+
+    @Override
+    public <R> R decode(byte[] bytes, Class<R> type) {
+        if (bytes[0] != MAGIC) {
+            return fallback.decode(bytes, type);
+        }
+        return isBinary(bytes) ? type.cast(read(bytes, type)) : null;
+    }
+
+    @Override
+    public byte[] encodeWithExpire(RedisData redisData) {
+        long expireMillis = redisData.getExpireTime().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        long delta = redisData.getDelta() == null ? 0 : redisData.getDelta();
+        return write(redisData.getData(), expireMillis, (int) Math.min(delta, Integer.MAX_VALUE));
+    }
+
+    @Override
+    public RedisData decodeWithExpire(byte[] bytes, Class<?> type) {
+        if (bytes[0] != MAGIC) {
+            return fallback.decodeWithExpire(bytes, type);
+        }
+        Object data = isBinary(bytes) ? read(bytes, type) : null;
+        if (data == null) {
+            return null;
+        }
+        Input header = new Input(bytes, 2);
+        long expireMillis = header.readLong();
+        int delta = header.readInt();
+        RedisData redisData = new RedisData();
+        redisData.setExpireTime(LocalDateTime.ofInstant(Instant.ofEpochMilli(expireMillis), ZoneId.systemDefault()));
+        redisData.setData(data);
+        redisData.setDelta((long) delta);
+        return redisData;
+    }
+
+    private static boolean isBinary(byte[] bytes) {
+        return bytes.length >= HEADER_LENGTH && bytes[0] == MAGIC && bytes[1] == VERSION;
+    }
+
+    private byte[] write(Object value, long expireMillis, int delta) {
+        Output out = new Output(64);
+        out.writeByte(MAGIC);
+        out.writeByte(VERSION);
+        out.writeLong(expireMillis);
+        out.writeInt(delta);
+        Kind kind = Kind.of(value.getClass());
+        if (kind != Kind.OBJECT) {
+            // 简单类型直接写入值
+            out.writeInt(kind.ordinal());
+            kind.write(out, value, value.getClass());
+            return out.toByteArray();
+        }
+        Schema schema = schemaOf(value.getClass());
+        out.writeInt(schema.hash);
+        try {
+            Object[] values = new Object[schema.fields.length];
+            byte[] nullBits = new byte[(schema.fields.length + 7) >>> 3];
+            for (int i = 0; i < schema.fields.length; i++) {
+                values[i] = schema.fields[i].get(value);
+                if (values[i] == null) {
+                    nullBits[i >>> 3] |= 1 << (i & 7);
+                }
+            }
+            out.writeBytes(nullBits);
+            for (int i = 0; i < values.length; i++) {
+                if (values[i] != null) {
+                    schema.kinds[i].write(out, values[i], schema.fields[i].getGenericType());
+                }
+            }
+        } catch (IllegalAccessException e) {
+            throw new RuntimeException(e);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * @return 解码后的对象，类结构发生变化时返回null
+     */
+    private Object read(byte[] bytes, Class<?> type) {
+        Input in = new Input(bytes, 14);
+        int hash = in.readInt();
+        Kind kind = Kind.of(type);
+        if (kind != Kind.OBJECT) {
+            return hash == kind.ordinal() ? kind.read(in, type) : null;
+        }
+        Schema schema = schemaOf(type);
+        if (hash != schema.hash) {
+            return null;
+        }
+        try {
+            Object value = schema.constructor.newInstance();
+            byte[] nullBits = in.readBytes((schema.fields.length + 7) >>> 3);
+            for (int i = 0; i < schema.fields.length; i++) {
+                if ((nullBits[i >>> 3] & (1 << (i & 7))) == 0) {
+                    schema.fields[i].set(value, schema.kinds[i].read(in, schema.fields[i].getGenericType()));
+                }
+            }
+            return value;
+        } catch (ReflectiveOperationException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private Schema schemaOf(Class<?> type) {
+        return schemas.computeIfAbsent(type, Schema::new);
+    }
+
+    /**
+     * 类结构：按名称排序的字段以及字段的编码方式
+     */
+    private static final class Schema {
+        final Constructor<?> constructor;
+        final Field[] fields;
+        final Kind[] kinds;
+        final int hash;
+
+        Schema(Class<?> type) {
+            List<Field> list = new ArrayList<>();
+            for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+                for (Field field : c.getDeclaredFields()) {
+                    int modifiers = field.getModifiers();
+                    if (!Modifier.isStatic(modifiers) && !Modifier.isTransient(modifiers)) {
+                        field.setAccessible(true);
+                        list.add(field);
+                    }
+                }
+            }
+            list.sort(Comparator.comparing(Field::getName));
+            this.fields = list.toArray(new Field[0]);
+            this.kinds = new Kind[fields.length];
+            StringBuilder signature = new StringBuilder(type.getName());
+            for (int i = 0; i < fields.length; i++) {
+                kinds[i] = Kind.of(fields[i].getType());
+                signature.append(';').append(fields[i].getName()).append(':').append(fields[i].getType().getName());
+            }
+            this.hash = signature.toString().hashCode();
+            try {
+                this.constructor = type.getDeclaredConstructor();
+                this.constructor.setAccessible(true);
+            } catch (NoSuchMethodException e) {
+                throw new IllegalArgumentException(type.getName() + "缺少无参构造函数", e);
+            }
+        }
+    }
+
+    /**
+     * 字段的编码方式
+     */
+    private enum Kind {
+        LONG {
+            void write(Output out, Object value, Type type) {
+                out.writeVarLong((Long) value);
+            }
+
+            Object read(Input in, Type type) {
+                return in.readVarLong();
+            }
+        },
+        INTEGER {
+            void write(Output out, Object value, Type type) {
+                out.writeVarLong((Integer) value);
+            }
+
+            Object read(Input in, Type type) {
+                return (int) in.readVarLong();
+            }
+        },
+        DOUBLE {
+            void write(Output out, Object value, Type type) {
+                out.writeLong(Double.doubleToRawLongBits((Double) value));
+            }
+
+            Object read(Input in, Type type) {
+                return Double.longBitsToDouble(in.readLong());
+            }
+        },
+        BOOLEAN {
+            void write(Output out, Object value, Type type) {
+                out.writeByte((Boolean) value ? (byte) 1 : (byte) 0);
+            }
+
+            Object read(Input in, Type type) {
+                return in.readByte() != 0;
+            }
+        },
+        STRING {
+            void write(Output out, Object value, Type type) {
+                byte[] bytes = ((String) value).getBytes(StandardCharsets.UTF_8);
+                out.writeVarLong(bytes.length);
+                out.writeBytes(bytes);
+            }
+
+            Object read(Input in, Type type) {
+                int length = (int) in.readVarLong();
+                String value = new String(in.buf, in.pos, length, StandardCharsets.UTF_8);
+                in.pos += length;
+                return value;
+            }
+        },
+        LOCAL_DATE_TIME {
+            // 本地时间的秒数（按UTC计算只是为了得到不带时区的整数），不是epoch秒
+            void write(Output out, Object value, Type type) {
+                LocalDateTime time = (LocalDateTime) value;
+                out.writeVarLong(time.toEpochSecond(ZoneOffset.UTC));
+                out.writeVarLong(time.getNano());
+            }
+
+            Object read(Input in, Type type) {
+                return LocalDateTime.ofEpochSecond(in.readVarLong(), (int) in.readVarLong(), ZoneOffset.UTC);
+            }
+        },
+        /**
+         * 其它类型的字段以JSON字符串保存
+         */
+        OBJECT {
+            void write(Output out, Object value, Type type) {
+                STRING.write(out, JSONUtil.toJsonStr(value), String.class);
+            }
+
+            Object read(Input in, Type type) {
+                return JSONUtil.toBean((String) STRING.read(in, String.class), type, false);
+            }
+        };
+
+        abstract void write(Output out, Object value, Type type);
+
+        abstract Object read(Input in, Type type);
+
+        static Kind of(Class<?> type) {
+            if (type == Long.class || type == long.class) {
+                return LONG;
+            }
+            if (type == Integer.class || type == int.class) {
+                return INTEGER;
+            }
+            if (type == Double.class || type == double.class) {
+                return DOUBLE;
+            }
+            if (type == Boolean.class || type == boolean.class) {
+                return BOOLEAN;
+            }
+            if (type == String.class) {
+                return STRING;
+            }
+            if (type == LocalDateTime.class) {
+                return LOCAL_DATE_TIME;
+            }
+            return OBJECT;
+        }
+    }
+
+    private static final class Output {
+        byte[] buf;
+        int pos;
+
+        Output(int capacity) {
+            buf = new byte[capacity];
+        }
+
+        void ensure(int n) {
+            if (pos + n > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(buf.length << 1, pos + n));
+            }
+        }
+
+        void writeByte(byte b) {
+            ensure(1);
+            buf[pos++] = b;
+        }
+
+        void writeBytes(byte[] bytes) {
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, buf, pos, bytes.length);
+            pos += bytes.length;
+        }
+
+        void writeInt(int v) {
+            ensure(4);
+            for (int shift = 24; shift >= 0; shift -= 8) {
+                buf[pos++] = (byte) (v >>> shift);
+            }
+        }
+
+        void writeLong(long v) {
+            ensure(8);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                buf[pos++] = (byte) (v >>> shift);
+            }
+        }
+
+        /**
+         * zigzag变长编码，小的正负数都只占1~2个字节
+         */
+        void writeVarLong(long v) {
+            ensure(10);
+            long zigzag = (v << 1) ^ (v >> 63);
+            while ((zigzag & ~0x7FL) != 0) {
+                buf[pos++] = (byte) ((zigzag & 0x7F) | 0x80);
+                zigzag >>>= 7;
+            }
+            buf[pos++] = (byte) zigzag;
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buf, pos);
+        }
+    }
+
+    private static final class Input {
+        final byte[] buf;
+        int pos;
+
+        Input(byte[] buf, int pos) {
+            this.buf = buf;
+            this.pos = pos;
+        }
+
+        byte readByte() {
+            return buf[pos++];
+        }
+
+        byte[] readBytes(int n) {
+            byte[] bytes = Arrays.copyOfRange(buf, pos, pos + n);
+            pos += n;
+            return bytes;
+        }
+
+        int readInt() {
+            int v = 0;
+            for (int i = 0; i < 4; i++) {
+                v = (v << 8) | (buf[pos++] & 0xFF);
+            }
+            return v;
+        }
+
+        long readLong() {
+            long v = 0;
+            for (int i = 0; i < 8; i++) {
+                v = (v << 8) | (buf[pos++] & 0xFF);
+            }
+            return v;
+        }
+
+        long readVarLong() {
+            long zigzag = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = buf[pos++];
+                zigzag |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return (zigzag >>> 1) ^ -(zigzag & 1);
+        }
+    }
+}
@@ -1,23 +1,43 @@
 package com.hmdp.utils;
 
+import cn.hutool.cache.CacheUtil;
+import cn.hutool.cache.impl.LRUCache;
+import cn.hutool.core.lang.UUID;
 import cn.hutool.core.util.BooleanUtil;
-import cn.hutool.core.util.StrUtil;
-import cn.hutool.json.JSONObject;
-import cn.hutool.json.JSONUtil;
 import com.hmdp.entity.Shop;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.types.Expiration;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
 import java.sql.Time;
 import java.time.LocalDateTime;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Function;
+import java.util.function.Supplier;
 
 import static com.hmdp.utils.RedisConstants.*;
+import static com.hmdp.utils.RedisScriptRegistry.UNLOCK;
 
 @Slf4j
 @Component
@@ -25,13 +45,202 @@ public class CacheClient {
 
     @Resource
     private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+    @Resource
+    private CacheCodec cacheCodec;
+    @Resource
+    private CacheRebuildScheduler cacheRebuildScheduler;
+    @Resource
+    private HotKeyDetector hotKeyDetector;
+    @Resource
+    private CacheExpirePolicy cacheExpirePolicy;
+    @Resource
+    private RedisScriptRegistry redisScriptRegistry;
+
+    /**
+     * redis中代表数据不存在的空值
+     */
+    private static final byte[] NULL_BYTES = new byte[0];
+
+    /**
+     * 本地缓存中代表数据不存在的占位对象
+     */
+    private static final Object NULL_VALUE = new Object();
+
+    /**
+     * 一级缓存：进程内LRU缓存，保存反序列化后的对象，按容量和写入时间淘汰
+     */
+    private final LRUCache<String, Object> localCache =
+            CacheUtil.newLRUCache(CACHE_LOCAL_CAPACITY, TimeUnit.SECONDS.toMillis(CACHE_LOCAL_TTL));
+
+    /**
+     * 热点key的本地副本，不受LRU容量淘汰，过期时间较短，热点key降级后删除
+     */
+    private final Map<String, HotEntry> hotReplica = new ConcurrentHashMap<>();
+    private final LongAdder hotReplicaHitCount = new LongAdder();
+
+    // 二级缓存（redis）的命中统计
+    private final LongAdder redisHitCount = new LongAdder();
+    private final LongAdder redisMissCount = new LongAdder();
+    // 合并到其它线程重建任务中的请求数
+    private final LongAdder coalescedCount = new LongAdder();
+
+    /**
+     * 按key前缀注册的布隆过滤器，用于代替空值缓存拦截不存在的id
+     */
+    private final Map<String, RedisBloomFilter> bloomFilters = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    private void init() {
+        // 订阅缓存失效消息，其它节点删除缓存时同步清除本地缓存
+        redisMessageListenerContainer.addMessageListener(
+                (message, pattern) -> removeLocal(new String(message.getBody(), StandardCharsets.UTF_8)),
+                new ChannelTopic(CACHE_INVALIDATE_CHANNEL));
+        // 热点key降级时删除本地副本
+        hotKeyDetector.setDemoteListener(hotReplica::remove);
+    }
+
+    /**
+     * 删除缓存
+     * 同时删除redis和本地缓存，并通知所有节点清除本地缓存
+     */
+    public void delete(String key) {
+        stringRedisTemplate.delete(key);
+        removeLocal(key);
+        stringRedisTemplate.convertAndSend(CACHE_INVALIDATE_CHANNEL, key);
+    }
+
+    /**
+     * 为指定前缀的缓存启用布隆过滤器
+     */
+    public void registerBloomFilter(String prefix, RedisBloomFilter bloomFilter) {
+        bloomFilters.put(prefix, bloomFilter);
+    }
+
+    /**
+     * 判断id是否可能存在，未注册或未初始化完成的过滤器一律放行
+     */
+    private boolean mightExist(String prefix, Object id) {
+        RedisBloomFilter bloomFilter = bloomFilters.get(prefix);
+        return bloomFilter == null || !bloomFilter.isReady() || bloomFilter.mightContain(id);
+    }
+
+    /**
+     * 查询各级缓存的命中情况
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("localSize", localCache.size());
+        stats.put("localHit", localCache.getHitCount());
+        stats.put("localMiss", localCache.getMissCount());
+        stats.put("localHitRatio", ratio(localCache.getHitCount(), localCache.getMissCount()));
+        stats.put("redisHit", redisHitCount.sum());
+        stats.put("redisMiss", redisMissCount.sum());
+        stats.put("redisHitRatio", ratio(redisHitCount.sum(), redisMissCount.sum()));
+        stats.put("rebuildCoalesced", coalescedCount.sum());
+        stats.put("hotKeys", hotKeyDetector.getHotKeys().size());
+        stats.put("hotReplicaSize", hotReplica.size());
+        stats.put("hotReplicaHit", hotReplicaHitCount.sum());
+        Map<String, Object> bloomStats = new LinkedHashMap<>();
+        bloomFilters.forEach((prefix, bloomFilter) -> bloomStats.put(prefix, bloomFilter.getStats()));
+        stats.put("bloomFilters", bloomStats);
+        stats.put("rebuild", cacheRebuildScheduler.getStats());
+        return stats;
+    }
+
+    private static double ratio(long hit, long miss) {
+        long total = hit + miss;
+        return total == 0 ? 0 : (double) hit / total;
+    }
+
+    /**
+     * 查询本地缓存，不刷新访问时间，保证数据最多存活CACHE_LOCAL_TTL
+     */
+    private Object getLocal(String key) {
+        // 记录访问频率，热点key优先读取本地副本
+        if (hotKeyDetector.record(key)) {
+            HotEntry entry = hotReplica.get(key);
+            if (entry != null && entry.expireAt > System.currentTimeMillis()) {
+                hotReplicaHitCount.increment();
+                return entry.value;
+            }
+        }
+        return localCache.get(key, false);
+    }
+
+    private void putLocal(String key, Object value) {
+        Object local = value == null ? NULL_VALUE : value;
+        localCache.put(key, local);
+        putHotReplica(key, local);
+    }
+
+    /**
+     * 热点key写入本地副本
+     */
+    private void putHotReplica(String key, Object value) {
+        if (hotKeyDetector.isHot(key)) {
+            hotReplica.put(key, new HotEntry(value,
+                    System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(CACHE_HOT_REPLICA_TTL)));
+        }
+    }
+
+    private void removeLocal(String key) {
+        localCache.remove(key);
+        hotReplica.remove(key);
+    }
+
+    /**
+     * 查询当前的热点key
+     * @return key -> 窗口内访问次数估算值、是否已有本地副本
+     */
+    public Map<String, Object> getHotKeys() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        hotKeyDetector.getHotKeys().forEach((key, estimate) -> {
+            Map<String, Object> info = new LinkedHashMap<>();
+            info.put("estimate", estimate);
+            info.put("replicated", hotReplica.containsKey(key));
+            result.put(key, info);
+        });
+        return result;
+    }
+
+    private static final class HotEntry {
+        final Object value;
+        final long expireAt;
+
+        HotEntry(Object value, long expireAt) {
+            this.value = value;
+            this.expireAt = expireAt;
+        }
+    }
+
+    private byte[] rawKey(String key) {
+        return stringRedisTemplate.getStringSerializer().serialize(key);
+    }
+
+    private byte[] getRaw(String key) {
+        return stringRedisTemplate.execute((RedisCallback<byte[]>) connection -> connection.get(rawKey(key)));
+    }
+
+    private void setRaw(String key, byte[] value, Expiration expiration) {
+        stringRedisTemplate.execute((RedisCallback<Object>) connection ->
+                connection.set(rawKey(key), value, expiration, RedisStringCommands.SetOption.upsert()));
+    }
 
     /**
      * 保存数据到redis中
-     * 设置过期时间
+     * 设置过期时间，实际过期时间由过期策略决定
      */
     public void set(String key, Object value, Long time, TimeUnit unit) {
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(value), time, unit);
+        setRaw(key, cacheCodec.encode(value), Expiration.milliseconds(cacheExpirePolicy.ttlMillis(key, time, unit)));
+    }
+
+    /**
+     * 写入空值防止缓存穿透
+     */
+    private void setNull(String key) {
+        setRaw(key, NULL_BYTES, Expiration.milliseconds(cacheExpirePolicy.nullTtlMillis(key)));
     }
 
     /**
@@ -39,10 +248,58 @@ public class CacheClient {
      * 设置逻辑过期时间
      */
     public void setWithLogicalExpire(String key, Object value, Long time, TimeUnit unit) {
+        long ttl = cacheExpirePolicy.ttlMillis(key, time, unit);
         RedisData redisData = new RedisData();
-        redisData.setExpireTime(LocalDateTime.now().plusSeconds(unit.toSeconds(time)));
+        redisData.setExpireTime(LocalDateTime.now().plus(ttl, ChronoUnit.MILLIS));
         redisData.setData(value);
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(redisData));
+        setRaw(key, cacheCodec.encodeWithExpire(redisData), logicalExpiration(key, ttl));
+    }
+
+    /**
+     * 逻辑过期数据在redis中的过期时间：限制了最长可用时间则在逻辑过期后再保留maxStale，否则永不过期
+     */
+    private Expiration logicalExpiration(String key, long ttl) {
+        long maxStale = cacheExpirePolicy.maxStaleMillis(key);
+        return maxStale < 0 ? Expiration.persistent() : Expiration.milliseconds(ttl + maxStale);
+    }
+
+    /**
+     * 通过管道批量写入逻辑过期的数据，用于缓存预热
+     */
+    public void setBatchWithLogicalExpire(Map<String, ?> values, Long time, TimeUnit unit) {
+        if (values.isEmpty()) {
+            return;
+        }
+        LocalDateTime now = LocalDateTime.now();
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            values.forEach((key, value) -> {
+                // 每个key单独计算过期时间，同一批预热的数据不会同时过期
+                long ttl = cacheExpirePolicy.ttlMillis(key, time, unit);
+                RedisData redisData = new RedisData();
+                redisData.setExpireTime(now.plus(ttl, ChronoUnit.MILLIS));
+                redisData.setData(value);
+                connection.set(rawKey(key), cacheCodec.encodeWithExpire(redisData),
+                        logicalExpiration(key, ttl), RedisStringCommands.SetOption.upsert());
+            });
+            return null;
+        });
+    }
+
+    /**
+     * 按指定的缓存模式查询
+     */
+    public <R, ID> R query(
+            CacheMode mode, String prefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit) {
+        switch (mode) {
+            case MUTEX:
+                return queryWithMutex(prefix, id, type, dbFallback, time, unit);
+            case LOGICAL_EXPIRE:
+                return queryWithLogicalExpire(prefix, id, type, dbFallback, time, unit);
+            case EARLY_REFRESH:
+                return queryWithEarlyRefresh(prefix, id, type, dbFallback, time, unit);
+            default:
+                return queryWithPassThrough(prefix, id, type, dbFallback, time, unit);
+        }
     }
 
     /**
@@ -50,148 +307,461 @@ public class CacheClient {
      */
     public <R, ID> R queryWithPassThrough(
             String prefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit) {
-        //1、从redis中查询店铺缓存
+        //1、先查询本地缓存
         String key = prefix + id;
-        String json = stringRedisTemplate.opsForValue().get(key);
+        Object local = getLocal(key);
+        if (local != null) {
+            return local == NULL_VALUE ? null : type.cast(local);
+        }
 
-        //2、判断缓存是否命中
-        if (StrUtil.isNotBlank(json)) {
-            //命中则返回shop数据
-            return JSONUtil.toBean(json, type);
+        //2、从redis中查询店铺缓存
+        byte[] bytes = getRaw(key);
+
+        //3、判断缓存是否命中
+        if (bytes != null && bytes.length > 0) {
+            //命中则返回shop数据，并写入本地缓存，无法解码的旧数据当作未命中处理
+            R r = cacheCodec.decode(bytes, type);
+            if (r != null) {
+                redisHitCount.increment();
+                putLocal(key, r);
+                return r;
+            }
         }
 
-        //如果不为null，证明是空字符串，则返回错误信息，反之为null查询数据库
-        if (json != null) {
+        //如果是空值，则返回错误信息，反之为null查询数据库
+        if (bytes != null && bytes.length == 0) {
+            redisHitCount.increment();
+            putLocal(key, null);
             return null;
         }
 
-        //3、未命中
-        //3.1、未命中则查询数据库
+        //4、未命中
+        //4.1、布隆过滤器判断不存在则直接返回，不写入空值也不查询数据库
+        redisMissCount.increment();
+        if (!mightExist(prefix, id)) {
+            return null;
+        }
+        //4.2、未命中则查询数据库
         R r = dbFallback.apply(id);
-        //3.2、数据库没有数据则失败，并向redis写入空值防止缓存穿透
+        //4.3、数据库没有数据则失败，并向redis写入空值防止缓存穿透
         if (r == null) {
-            this.set(key, "", CACHE_NULL_TTL, TimeUnit.MINUTES);
+            setNull(key);
+            putLocal(key, null);
             return null;
         }
-        //3.3、有数据则写入redis中
-        this.set(key, JSONUtil.toJsonStr(r), time, unit);
+        //4.4、有数据则写入redis和本地缓存中
+        this.set(key, r, time, unit);
+        putLocal(key, r);
         //返回数据
         return r;
     }
 
+    /**
+     * 批量查询，解决缓存穿透
+     * 本地缓存 -> 一次MGET -> 未命中的id一次查询数据库 -> 管道批量回写redis
+     * @return 按ids顺序排列的结果，不存在的id不包含在结果中
+     */
+    public <R, ID> Map<ID, R> queryBatchWithPassThrough(
+            String prefix, Collection<ID> ids, Class<R> type,
+            Function<Collection<ID>, Map<ID, R>> dbFallback, Long time, TimeUnit unit) {
+        Map<ID, R> found = new LinkedHashMap<>(ids.size());
+        if (ids.isEmpty()) {
+            return found;
+        }
+        //1、先查询本地缓存
+        List<ID> redisIds = new ArrayList<>();
+        for (ID id : ids) {
+            Object local = getLocal(prefix + id);
+            if (local == null) {
+                redisIds.add(id);
+            } else if (local != NULL_VALUE) {
+                found.put(id, type.cast(local));
+            }
+        }
+
+        //2、本地未命中的key一次MGET查询redis
+        List<ID> missIds = new ArrayList<>();
+        if (!redisIds.isEmpty()) {
+            byte[][] keys = new byte[redisIds.size()][];
+            for (int i = 0; i < keys.length; i++) {
+                keys[i] = rawKey(prefix + redisIds.get(i));
+            }
+            List<byte[]> values = stringRedisTemplate.execute(
+                    (RedisCallback<List<byte[]>>) connection -> connection.mGet(keys));
+            for (int i = 0; i < redisIds.size(); i++) {
+                ID id = redisIds.get(i);
+                byte[] bytes = values == null ? null : values.get(i);
+                //空值代表数据不存在
+                R r = bytes == null || bytes.length == 0 ? null : cacheCodec.decode(bytes, type);
+                if (bytes == null || (bytes.length > 0 && r == null)) {
+                    missIds.add(id);
+                    continue;
+                }
+                redisHitCount.increment();
+                putLocal(prefix + id, r);
+                if (r != null) {
+                    found.put(id, r);
+                }
+            }
+        }
+
+        //3、redis未命中的id一次性查询数据库，并通过管道批量回写redis
+        redisMissCount.add(missIds.size());
+        //布隆过滤器判断不存在的id不查询数据库
+        RedisBloomFilter bloomFilter = bloomFilters.get(prefix);
+        List<ID> loadIds = bloomFilter != null && !missIds.isEmpty() && bloomFilter.isReady()
+                ? bloomFilter.filterMightContain(missIds) : missIds;
+        if (!loadIds.isEmpty()) {
+            Map<ID, R> loaded = dbFallback.apply(loadIds);
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                for (ID id : loadIds) {
+                    R r = loaded.get(id);
+                    String key = prefix + id;
+                    if (r == null) {
+                        //数据库没有数据，写入空值防止缓存穿透
+                        connection.set(rawKey(key), NULL_BYTES,
+                                Expiration.milliseconds(cacheExpirePolicy.nullTtlMillis(key)),
+                                RedisStringCommands.SetOption.upsert());
+                    } else {
+                        connection.set(rawKey(key), cacheCodec.encode(r),
+                                Expiration.milliseconds(cacheExpirePolicy.ttlMillis(key, time, unit)),
+                                RedisStringCommands.SetOption.upsert());
+                        found.put(id, r);
+                    }
+                    putLocal(key, r);
+                }
+                return null;
+            });
+        }
+
+        //4、按传入ids的顺序返回
+        Map<ID, R> result = new LinkedHashMap<>(found.size());
+        for (ID id : ids) {
+            R r = found.get(id);
+            if (r != null) {
+                result.put(id, r);
+            }
+        }
+        return result;
+    }
+
     /**
      * 缓存击穿
      */
     public <R, ID> R queryWithMutex(
             String prefix, ID id, Class<R> type, Function<ID, R> dbFallBack, Long time, TimeUnit unit) {
-        //1、从redis中查询店铺缓存
+        //1、先查询本地缓存
         String key = prefix + id;
+        Object local = getLocal(key);
+        if (local != null) {
+            return local == NULL_VALUE ? null : type.cast(local);
+        }
 
-        //2、判断缓存是否命中
-        String json = stringRedisTemplate.opsForValue().get(key);
-        if (StrUtil.isNotBlank(json)) {
+        //2、从redis中查询店铺缓存，判断缓存是否命中
+        byte[] bytes = getRaw(key);
+        if (bytes != null && bytes.length > 0) {
             //命中则返回shop数据
-            return JSONUtil.toBean(json, type);
+            R r = cacheCodec.decode(bytes, type);
+            if (r != null) {
+                redisHitCount.increment();
+                putLocal(key, r);
+                return r;
+            }
+        }
+
+        //如果是空值，则返回错误信息，反之为null查询数据库
+        if (bytes != null && bytes.length == 0) {
+            redisHitCount.increment();
+            putLocal(key, null);
+            return null;
+        }
+        redisMissCount.increment();
+        if (!mightExist(prefix, id)) {
+            return null;
+        }
+
+        // 3.缓存重建，同一节点上并发的请求共享同一个重建任务，只有一个线程去竞争分布式锁
+        return type.cast(singleFlight(key, () -> rebuildWithMutex(key, id, type, dbFallBack, time, unit)));
+    }
+
+    /**
+     * 同一个key同一时刻只有一个线程执行loader，其它线程等待并共享其结果
+     */
+    private Object singleFlight(String key, Supplier<?> loader) {
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        CompletableFuture<Object> inFlight = rebuildFlights.putIfAbsent(key, future);
+        if (inFlight != null) {
+            // 1.已有线程在重建，等待其结果
+            coalescedCount.increment();
+            return awaitRebuild(inFlight);
+        }
+        try {
+            // 2.当前线程负责重建
+            Object r = loader.get();
+            future.complete(r);
+            return r;
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            rebuildFlights.remove(key, future);
         }
+    }
 
-        //如果不为null，证明是空字符串，则返回错误信息，反之为null查询数据库
-        if (json != null) {
+    /**
+     * 正在进行中的缓存重建任务，key为缓存key
+     */
+    private final ConcurrentHashMap<String, CompletableFuture<Object>> rebuildFlights = new ConcurrentHashMap<>();
+
+    private Object awaitRebuild(CompletableFuture<Object> future) {
+        try {
+            return future.get(LOCK_SHOP_TTL, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof RuntimeException ? (RuntimeException) cause : new RuntimeException(cause);
+        } catch (TimeoutException e) {
+            // 重建超时，返回空
             return null;
         }
+    }
 
-        // 4.缓存重建
-        // 4.1获取互斥锁
-        String lockKey = LOCK_SHOP_KEY + id;
-        R r = null;
+    /**
+     * 获取分布式互斥锁后查询数据库重建缓存，每个节点同一时刻只有一个线程执行
+     */
+    private <R, ID> R rebuildWithMutex(
+            String key, ID id, Class<R> type, Function<ID, R> dbFallBack, Long time, TimeUnit unit) {
+        // 1.获取互斥锁
+        String lockKey = LOCK_CACHE_KEY + key;
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(LOCK_SHOP_TTL);
+        long backoff = 5;
+        String owner;
         try {
-            // 4.2 尝试获取锁
-            int count = 0;
-            while (!tryLock(lockKey)) {
-                //获取不超过防止死等
-                Thread.sleep(50);
-                if (++count >= 5) return null;
+            // 1.1 其它节点正在重建时，退避等待并检查缓存是否已经写入
+            while ((owner = tryLock(lockKey)) == null && System.currentTimeMillis() < deadline) {
+                Thread.sleep(backoff);
+                backoff = Math.min(backoff * 2, 100);
+                byte[] bytes = getRaw(key);
+                // 旧格式的数据解码失败，继续等待重建
+                R r = bytes == null || bytes.length == 0 ? null : cacheCodec.decode(bytes, type);
+                if (bytes != null && (bytes.length == 0 || r != null)) {
+                    putLocal(key, r);
+                    return r;
+                }
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
 
-            // 4.4 获取成功，判断redis中是否有缓存，存在则无需重建缓存造成多次查询
-            json = stringRedisTemplate.opsForValue().get(key);
-            if (StrUtil.isNotBlank(json)) {
-                return JSONUtil.toBean(json, type);
+        try {
+            // 2.获取成功，判断redis中是否有缓存，存在则无需重建缓存造成多次查询
+            // 旧格式的数据解码失败，与未命中一样重建
+            if (owner != null) {
+                byte[] bytes = getRaw(key);
+                R r = bytes == null || bytes.length == 0 ? null : cacheCodec.decode(bytes, type);
+                if (bytes != null && (bytes.length == 0 || r != null)) {
+                    putLocal(key, r);
+                    return r;
+                }
             }
 
-            //查询数据库重建缓存
-            r = dbFallBack.apply(id);
-            //模拟重建延时
-            //Thread.sleep(200);
-            // 5、数据库没有数据则失败，并向redis写入空值防止缓存穿透
+            // 3.查询数据库重建缓存，等锁超时也直接查询，避免请求失败
+            R r = dbFallBack.apply(id);
+            // 4、数据库没有数据则失败，并向redis写入空值防止缓存穿透
             if (r == null) {
-                this.set(key, "", CACHE_NULL_TTL, TimeUnit.MINUTES);
+                setNull(key);
+                putLocal(key, null);
                 return null;
             }
-            //6、有数据则写入redis中
-            this.set(key, JSONUtil.toJsonStr(r), time, unit);
-
-        } catch (InterruptedException e) {
-            throw new RuntimeException(e);
+            // 5、有数据则写入redis和本地缓存中
+            this.set(key, r, time, unit);
+            putLocal(key, r);
+            return r;
         } finally {
-            // 7.释放互斥锁
-            unlock(lockKey);
+            // 6.释放互斥锁，只释放自己获取到的锁
+            if (owner != null) {
+                unlock(lockKey, owner);
+            }
         }
-        //返回数据
-        return r;
     }
 
-    private boolean tryLock(String key) {
+    /**
+     * 获取互斥锁，锁的值为本次调用唯一的标识
+     * @return 获取成功返回标识，失败返回null
+     */
+    private String tryLock(String key) {
+        String owner = UUID.fastUUID().toString(true);
         Boolean result = stringRedisTemplate.opsForValue().
-                setIfAbsent(key, "1", LOCK_SHOP_TTL, TimeUnit.SECONDS);
-        return BooleanUtil.isTrue(result);
+                setIfAbsent(key, owner, LOCK_SHOP_TTL, TimeUnit.SECONDS);
+        return BooleanUtil.isTrue(result) ? owner : null;
     }
 
-    private void unlock(String key) {
-        stringRedisTemplate.delete(key);
+    /**
+     * 比较标识后删除，重建超过锁的有效期时不会删除其它节点获取到的锁
+     */
+    private void unlock(String key, String owner) {
+        redisScriptRegistry.execute(UNLOCK, Collections.singletonList(key), owner);
     }
 
-    private static final ExecutorService CACHE_REBUILD_EXECUTOR = Executors.newFixedThreadPool(10);
+    /**
+     * 异步重建缓存，互斥锁一直持有到重建完成
+     * 本节点已有该key的重建任务时不再竞争锁；重建被丢弃时立即释放锁，调用方继续返回旧数据
+     */
+    private void rebuildAsync(String key, String lockKey, Runnable rebuild) {
+        if (cacheRebuildScheduler.isScheduled(key)) {
+            return;
+        }
+        String owner = tryLock(lockKey);
+        if (owner == null) {
+            return;
+        }
+        boolean submitted = cacheRebuildScheduler.submit(key, () -> {
+            try {
+                rebuild.run();
+            } finally {
+                unlock(lockKey, owner);
+            }
+        });
+        if (!submitted) {
+            unlock(lockKey, owner);
+        }
+    }
 
     // 逻辑过期
     public <R, ID> R queryWithLogicalExpire(
             String prefix, ID id, Class<R> type, Function<ID, R> dbFallBack, Long time, TimeUnit unit) {
-        //1、从redis中查询店铺缓存
+        //1、先查询本地缓存，本地缓存中只保存未过期的数据
         String key = prefix + id;
-        String json = stringRedisTemplate.opsForValue().get(key);
+        Object local = getLocal(key);
+        if (local != null && local != NULL_VALUE) {
+            return type.cast(local);
+        }
 
-        //2、判断缓存是否命中
-        if (StrUtil.isBlank(json)) {
-            //2.1 未命中直接返回null
+        //从redis中查询店铺缓存
+        byte[] bytes = getRaw(key);
+        if (bytes != null && bytes.length == 0) {
+            //空值直接返回
+            redisHitCount.increment();
             return null;
         }
+        RedisData redisData = bytes == null ? null : cacheCodec.decodeWithExpire(bytes, type);
+
+        //2、判断缓存是否命中
+        if (redisData == null) {
+            //2.1 未命中（未预热或已被删除），同一节点的并发请求共享一次同步重建
+            redisMissCount.increment();
+            if (!mightExist(prefix, id)) {
+                return null;
+            }
+            return type.cast(singleFlight(key, () -> rebuildWithLogicalExpire(key, id, dbFallBack, time, unit)));
+        }
+        redisHitCount.increment();
 
         //2.2 命中则判断缓存是否过期
-        RedisData redisData = JSONUtil.toBean(json, RedisData.class);
-        R r = JSONUtil.toBean((JSONObject) redisData.getData(), type);
+        R r = type.cast(redisData.getData());
 
         if (redisData.getExpireTime().isAfter(LocalDateTime.now())) {
             // 未过期返回数据
+            putLocal(key, r);
             return r;
         }
+        // 超过最长可用时间的旧数据不再返回，同步重建
+        long maxStale = cacheExpirePolicy.maxStaleMillis(key);
+        if (maxStale >= 0 && redisData.getExpireTime().plus(maxStale, ChronoUnit.MILLIS).isBefore(LocalDateTime.now())) {
+            return type.cast(singleFlight(key, () -> rebuildWithLogicalExpire(key, id, dbFallBack, time, unit)));
+        }
+        // 热点key在重建期间也从本地副本返回旧数据，避免所有请求都访问redis
+        putHotReplica(key, r);
 
         // 3、过期则需要缓存重建
-        // 3.1 尝试获取互斥锁
-        String lockKey = LOCK_SHOP_KEY + id;
-        // 获取成功，则开启独立线程进行缓存重建
-        if (tryLock(lockKey)) {
-            try {
-                CACHE_REBUILD_EXECUTOR.submit(() -> {
-                    // 重建缓存
-                    // 1.查询数据库
-                    R apply = dbFallBack.apply(id);
-                    // 2.写入redis
-                    this.setWithLogicalExpire(key, apply, time, unit);
-                });
-            } finally {
-                unlock(lockKey);
+        // 获取互斥锁成功，则交给重建调度器异步重建
+        rebuildAsync(key, LOCK_CACHE_KEY + key, () -> rebuildWithLogicalExpire(key, id, dbFallBack, time, unit));
+        // 返回旧的数据
+        return r;
+    }
+
+    private <R, ID> R rebuildWithLogicalExpire(String key, ID id, Function<ID, R> dbFallBack, Long time, TimeUnit unit) {
+        // 1.查询数据库
+        R r = dbFallBack.apply(id);
+        // 2.写入redis，数据已被删除则写入空值
+        if (r == null) {
+            setNull(key);
+            return null;
+        }
+        this.setWithLogicalExpire(key, r, time, unit);
+        return r;
+    }
+
+    /**
+     * 概率提前刷新（XFetch）
+     * 缓存中同时保存数据的重建耗时，过期前按 now - delta * beta * ln(random) >= expireTime 的概率异步刷新，
+     * 越接近过期、重建越慢，提前刷新的概率越大，热点key几乎不会真正过期
+     */
+    public <R, ID> R queryWithEarlyRefresh(
+            String prefix, ID id, Class<R> type, Function<ID, R> dbFallBack, Long time, TimeUnit unit) {
+        //1、先查询本地缓存
+        String key = prefix + id;
+        Object local = getLocal(key);
+        if (local != null) {
+            return local == NULL_VALUE ? null : type.cast(local);
+        }
+
+        //2、从redis中查询缓存
+        byte[] bytes = getRaw(key);
+        if (bytes != null && bytes.length == 0) {
+            //空值直接返回
+            redisHitCount.increment();
+            putLocal(key, null);
+            return null;
+        }
+        RedisData redisData = bytes == null ? null : cacheCodec.decodeWithExpire(bytes, type);
+        if (redisData != null) {
+            redisHitCount.increment();
+            R r = type.cast(redisData.getData());
+            //3、命中则判断是否需要提前刷新
+            if (shouldRefreshEarly(redisData)) {
+                rebuildAsync(key, LOCK_CACHE_KEY + key, () -> refreshWithDelta(key, id, dbFallBack, time, unit));
+            } else {
+                putLocal(key, r);
             }
+            return r;
         }
-        // 获取失败返回旧的数据
+
+        //4、未命中则同步重建，同一节点的并发请求共享一次查询
+        redisMissCount.increment();
+        if (!mightExist(prefix, id)) {
+            return null;
+        }
+        return type.cast(singleFlight(key, () -> refreshWithDelta(key, id, dbFallBack, time, unit)));
+    }
+
+    private static boolean shouldRefreshEarly(RedisData redisData) {
+        long delta = redisData.getDelta() == null ? 0 : redisData.getDelta();
+        double gap = -delta * CACHE_EARLY_REFRESH_BETA * Math.log(ThreadLocalRandom.current().nextDouble());
+        return !LocalDateTime.now().plusNanos((long) (gap * 1_000_000)).isBefore(redisData.getExpireTime());
+    }
+
+    /**
+     * 查询数据库重建缓存，记录重建耗时，数据的逻辑过期时间与redis的过期时间一致
+     */
+    private <R, ID> R refreshWithDelta(String key, ID id, Function<ID, R> dbFallBack, Long time, TimeUnit unit) {
+        long begin = System.currentTimeMillis();
+        R r = dbFallBack.apply(id);
+        if (r == null) {
+            setNull(key);
+            putLocal(key, null);
+            return null;
+        }
+        long ttl = cacheExpirePolicy.ttlMillis(key, time, unit);
+        RedisData redisData = new RedisData();
+        redisData.setExpireTime(LocalDateTime.now().plus(ttl, ChronoUnit.MILLIS));
+        redisData.setData(r);
+        redisData.setDelta(System.currentTimeMillis() - begin);
+        setRaw(key, cacheCodec.encodeWithExpire(redisData), Expiration.milliseconds(ttl));
+        putLocal(key, r);
         return r;
     }
 }
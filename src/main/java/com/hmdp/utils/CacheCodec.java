@@ -0,0 +1,30 @@
+package com.hmdp.utils;
+
+/**
+ * 缓存值编解码器，决定CacheClient写入redis的数据格式
+ * 空数组代表空值占位，编解码器不需要处理
+ */
+public interface CacheCodec {
+
+    /**
+     * 编码普通缓存数据
+     */
+    byte[] encode(Object value);
+
+    /**
+     * 解码普通缓存数据
+     * @return 解码后的对象，数据格式无法识别时返回null
+     */
+    <R> R decode(byte[] bytes, Class<R> type);
+
+    /**
+     * 编码带逻辑过期时间的缓存数据
+     */
+    byte[] encodeWithExpire(RedisData redisData);
+
+    /**
+     * 解码带逻辑过期时间的缓存数据，data字段为type类型的对象
+     * @return 解码后的数据，数据格式无法识别时返回null
+     */
+    RedisData decodeWithExpire(byte[] bytes, Class<?> type);
+}
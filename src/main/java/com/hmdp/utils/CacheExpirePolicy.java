@@ -0,0 +1,106 @@
+package com.hmdp.utils;
+
+import lombok.Data;
+import lombok.experimental.Accessors;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 缓存过期策略
+ * 按key前缀配置基础过期时间、随机抖动、空值过期时间和逻辑过期数据的最长可用时间，
+ * 同一批写入的key过期时间被随机打散，避免同时过期造成缓存雪崩
+ */
+@Data
+@Accessors(chain = true)
+public class CacheExpirePolicy {
+
+    /**
+     * 未匹配到前缀时使用的规则
+     */
+    private ExpireRule defaults = new ExpireRule()
+            .setJitter(0.1)
+            .setNullTtl(Duration.ofMinutes(RedisConstants.CACHE_NULL_TTL));
+
+    /**
+     * key前缀 -> 规则，匹配最长的前缀，规则中未配置的字段使用defaults
+     */
+    private Map<String, ExpireRule> rules = new LinkedHashMap<>();
+
+    @Data
+    @Accessors(chain = true)
+    public static class ExpireRule {
+        /**
+         * 基础过期时间，未配置时使用调用方传入的时间
+         */
+        private Duration ttl;
+        /**
+         * 随机抖动比例，实际过期时间在 [ttl, ttl * (1 + jitter)] 之间均匀分布
+         */
+        private Double jitter;
+        /**
+         * 空值的过期时间
+         */
+        private Duration nullTtl;
+        /**
+         * 逻辑过期的数据过期后还能返回旧数据的最长时间，超过后同步重建；未配置则不限制
+         */
+        private Duration maxStale;
+    }
+
+    public CacheExpirePolicy rule(String prefix, ExpireRule rule) {
+        rules.put(prefix, rule);
+        return this;
+    }
+
+    /**
+     * 计算数据的过期时间（毫秒），已加入随机抖动
+     */
+    public long ttlMillis(String key, long time, TimeUnit unit) {
+        ExpireRule rule = match(key);
+        Duration ttl = rule == null || rule.getTtl() == null ? defaults.getTtl() : rule.getTtl();
+        return jitter(ttl == null ? unit.toMillis(time) : ttl.toMillis(), rule);
+    }
+
+    /**
+     * 计算空值的过期时间（毫秒），已加入随机抖动
+     */
+    public long nullTtlMillis(String key) {
+        ExpireRule rule = match(key);
+        Duration nullTtl = rule == null || rule.getNullTtl() == null ? defaults.getNullTtl() : rule.getNullTtl();
+        return jitter(nullTtl.toMillis(), rule);
+    }
+
+    /**
+     * 逻辑过期数据的最长可用时间（毫秒），-1代表不限制
+     */
+    public long maxStaleMillis(String key) {
+        ExpireRule rule = match(key);
+        Duration maxStale = rule == null || rule.getMaxStale() == null ? defaults.getMaxStale() : rule.getMaxStale();
+        return maxStale == null ? -1 : maxStale.toMillis();
+    }
+
+    private long jitter(long millis, ExpireRule rule) {
+        Double jitter = rule == null || rule.getJitter() == null ? defaults.getJitter() : rule.getJitter();
+        if (jitter == null || jitter <= 0 || millis <= 0) {
+            return millis;
+        }
+        return millis + (long) (ThreadLocalRandom.current().nextDouble() * jitter * millis);
+    }
+
+    private ExpireRule match(String key) {
+        ExpireRule matched = null;
+        int length = -1;
+        for (Map.Entry<String, ExpireRule> entry : rules.entrySet()) {
+            String prefix = entry.getKey();
+            if (prefix.length() > length && key.startsWith(prefix)) {
+                matched = entry.getValue();
+                length = prefix.length();
+            }
+        }
+        return matched;
+    }
+}
@@ -0,0 +1,23 @@
+package com.hmdp.utils;
+
+/**
+ * 缓存查询模式
+ */
+public enum CacheMode {
+    /**
+     * 缓存空值解决缓存穿透
+     */
+    PASS_THROUGH,
+    /**
+     * 互斥锁解决缓存击穿
+     */
+    MUTEX,
+    /**
+     * 逻辑过期解决缓存击穿，需要预热
+     */
+    LOGICAL_EXPIRE,
+    /**
+     * 概率提前刷新
+     */
+    EARLY_REFRESH
+}
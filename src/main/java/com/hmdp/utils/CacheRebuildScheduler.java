@@ -0,0 +1,134 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 缓存重建调度器
+ * 有界队列 + 按key去重：同一个key同一时刻最多只有一个重建任务排队或执行，
+ * 队列满时直接丢弃本次重建，由调用方继续返回旧数据
+ */
+@Slf4j
+public class CacheRebuildScheduler {
+
+    private final ThreadPoolExecutor executor;
+    private final long shutdownTimeoutSeconds;
+
+    /**
+     * 已提交但还未执行完的重建任务，value为提交时间
+     */
+    private final Map<String, Long> scheduled = new ConcurrentHashMap<>();
+
+    private final LongAdder submittedCount = new LongAdder();
+    private final LongAdder completedCount = new LongAdder();
+    private final LongAdder failedCount = new LongAdder();
+    private final LongAdder dedupedCount = new LongAdder();
+    private final LongAdder rejectedCount = new LongAdder();
+    // 排队耗时和执行耗时，单位毫秒
+    private final LongAdder totalWaitMillis = new LongAdder();
+    private final LongAdder totalRunMillis = new LongAdder();
+    private final AtomicLong maxRunMillis = new AtomicLong();
+
+    public CacheRebuildScheduler(int threads, int queueCapacity, long shutdownTimeoutSeconds) {
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                r -> new Thread(r, "cache-rebuild-" + threadNumber.incrementAndGet()),
+                new ThreadPoolExecutor.AbortPolicy());
+        this.shutdownTimeoutSeconds = shutdownTimeoutSeconds;
+    }
+
+    /**
+     * 判断key是否已经有重建任务在排队或执行
+     */
+    public boolean isScheduled(String key) {
+        return scheduled.containsKey(key);
+    }
+
+    /**
+     * 提交重建任务
+     * @return 是否提交成功，key已有任务或队列已满时返回false，调用方需自行释放已获取的锁
+     */
+    public boolean submit(String key, Runnable task) {
+        // 1.按key去重
+        long submitTime = System.currentTimeMillis();
+        if (scheduled.putIfAbsent(key, submitTime) != null) {
+            dedupedCount.increment();
+            return false;
+        }
+        // 2.提交到线程池，队列满或已关闭时放弃本次重建
+        try {
+            executor.execute(() -> run(key, submitTime, task));
+            submittedCount.increment();
+            return true;
+        } catch (RejectedExecutionException e) {
+            scheduled.remove(key, submitTime);
+            rejectedCount.increment();
+            log.warn("缓存重建队列已满，放弃重建：{}", key);
+            return false;
+        }
+    }
+
+    private void run(String key, long submitTime, Runnable task) {
+        long begin = System.currentTimeMillis();
+        totalWaitMillis.add(begin - submitTime);
+        try {
+            task.run();
+            completedCount.increment();
+        } catch (Exception e) {
+            failedCount.increment();
+            log.error("缓存重建失败：{}", key, e);
+        } finally {
+            long cost = System.currentTimeMillis() - begin;
+            totalRunMillis.add(cost);
+            maxRunMillis.accumulateAndGet(cost, Math::max);
+            scheduled.remove(key, submitTime);
+        }
+    }
+
+    /**
+     * 查询重建队列和耗时统计
+     */
+    public Map<String, Object> getStats() {
+        long finished = completedCount.sum() + failedCount.sum();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("queueDepth", executor.getQueue().size());
+        stats.put("queueRemaining", executor.getQueue().remainingCapacity());
+        stats.put("active", executor.getActiveCount());
+        stats.put("submitted", submittedCount.sum());
+        stats.put("completed", completedCount.sum());
+        stats.put("failed", failedCount.sum());
+        stats.put("deduped", dedupedCount.sum());
+        stats.put("rejected", rejectedCount.sum());
+        stats.put("avgWaitMillis", finished == 0 ? 0 : (double) totalWaitMillis.sum() / finished);
+        stats.put("avgRunMillis", finished == 0 ? 0 : (double) totalRunMillis.sum() / finished);
+        stats.put("maxRunMillis", maxRunMillis.get());
+        return stats;
+    }
+
+    /**
+     * 停止接收新任务，等待已提交的重建执行完，超时后中断剩余任务
+     */
+    public void shutdown() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(shutdownTimeoutSeconds, TimeUnit.SECONDS)) {
+                log.warn("缓存重建任务未在{}秒内完成，剩余{}个任务被丢弃",
+                        shutdownTimeoutSeconds, executor.shutdownNow().size());
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+}
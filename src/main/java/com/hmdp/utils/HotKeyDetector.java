@@ -0,0 +1,179 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.hash.MurmurHash;
+import lombok.extern.slf4j.Slf4j;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Consumer;
+
+/**
+ * 热点key探测器
+ * 滑动窗口由若干个时间桶组成，每个桶是一个Count-Min Sketch，
+ * 窗口内的访问次数估算值达到阈值的key被标记为热点key，窗口滑动后低于阈值的key被移除
+ */
+@Slf4j
+public class HotKeyDetector {
+
+    /**
+     * Count-Min Sketch的行数和每行的计数器个数，估算误差约为 窗口总访问量 * e / WIDTH
+     */
+    private static final int DEPTH = 4;
+    private static final int WIDTH = 2048;
+
+    private final long bucketMillis;
+    private final long threshold;
+    private final int maxHotKeys;
+    private final AtomicLongArray[] buckets;
+    /**
+     * 每个桶当前对应的时间片编号
+     */
+    private final long[] bucketEpochs;
+    private volatile long currentEpoch;
+
+    /**
+     * 热点key及其最近一次的访问次数估算值
+     */
+    private final Map<String, Long> hotKeys = new ConcurrentHashMap<>();
+    private volatile Consumer<String> demoteListener = key -> { };
+
+    /**
+     * @param windowMillis 滑动窗口长度
+     * @param bucketCount 窗口划分的桶数，越多滑动越平滑
+     * @param threshold 窗口内访问次数达到该值即为热点key
+     * @param maxHotKeys 热点key的最大数量
+     */
+    public HotKeyDetector(long windowMillis, int bucketCount, long threshold, int maxHotKeys) {
+        this.bucketMillis = Math.max(1, windowMillis / bucketCount);
+        this.threshold = threshold;
+        this.maxHotKeys = maxHotKeys;
+        this.buckets = new AtomicLongArray[bucketCount];
+        this.bucketEpochs = new long[bucketCount];
+        for (int i = 0; i < bucketCount; i++) {
+            buckets[i] = new AtomicLongArray(DEPTH * WIDTH);
+        }
+        this.currentEpoch = System.currentTimeMillis() / bucketMillis;
+        for (int i = 0; i < bucketCount; i++) {
+            bucketEpochs[i] = currentEpoch - Math.floorMod(currentEpoch - i, bucketCount);
+        }
+    }
+
+    /**
+     * 设置热点key降级时的回调，用于清除本地副本
+     */
+    public void setDemoteListener(Consumer<String> demoteListener) {
+        this.demoteListener = demoteListener;
+    }
+
+    /**
+     * 记录一次访问
+     * @return 该key是否为热点key
+     */
+    public boolean record(String key) {
+        rotate();
+        int[] indexes = indexes(key);
+        AtomicLongArray bucket = buckets[(int) (currentEpoch % buckets.length)];
+        for (int i = 0; i < DEPTH; i++) {
+            bucket.incrementAndGet(indexes[i]);
+        }
+        long estimate = estimate(indexes);
+        if (estimate < threshold) {
+            return hotKeys.containsKey(key);
+        }
+        if (hotKeys.containsKey(key) || hotKeys.size() < maxHotKeys) {
+            if (hotKeys.put(key, estimate) == null) {
+                log.info("发现热点key：{}，窗口内访问约{}次", key, estimate);
+            }
+            return true;
+        }
+        return false;
+    }
+
+    public boolean isHot(String key) {
+        return hotKeys.containsKey(key);
+    }
+
+    /**
+     * 查询当前的热点key，按访问次数从高到低排序
+     */
+    public Map<String, Long> getHotKeys() {
+        rotate();
+        Map<String, Long> result = new LinkedHashMap<>();
+        hotKeys.keySet().stream()
+                .map(key -> new Object[]{key, estimate(indexes(key))})
+                .sorted(Comparator.comparingLong(e -> -(Long) e[1]))
+                .forEach(e -> result.put((String) e[0], (Long) e[1]));
+        return result;
+    }
+
+    /**
+     * 进入新的时间片时清空过期的桶，并移除不再是热点的key
+     */
+    private void rotate() {
+        long epoch = System.currentTimeMillis() / bucketMillis;
+        if (epoch == currentEpoch) {
+            return;
+        }
+        synchronized (this) {
+            if (epoch == currentEpoch) {
+                return;
+            }
+            // 第i个桶保存编号对桶数取余为i的时间片，编号不对应的桶已经滑出窗口
+            for (int i = 0; i < buckets.length; i++) {
+                long bucketEpoch = epoch - Math.floorMod(epoch - i, buckets.length);
+                if (bucketEpochs[i] != bucketEpoch) {
+                    clear(buckets[i]);
+                    bucketEpochs[i] = bucketEpoch;
+                }
+            }
+            currentEpoch = epoch;
+            // 由完成滑动的线程检查热点key是否需要降级
+            hotKeys.keySet().removeIf(key -> {
+                if (estimate(indexes(key)) >= threshold) {
+                    return false;
+                }
+                log.info("热点key降级：{}", key);
+                demoteListener.accept(key);
+                return true;
+            });
+        }
+    }
+
+    private static void clear(AtomicLongArray bucket) {
+        for (int i = 0; i < bucket.length(); i++) {
+            bucket.set(i, 0);
+        }
+    }
+
+    /**
+     * 估算窗口内的访问次数：每一行先把所有桶的计数相加，再取各行的最小值
+     */
+    private long estimate(int[] indexes) {
+        long min = Long.MAX_VALUE;
+        for (int i = 0; i < DEPTH; i++) {
+            long sum = 0;
+            for (AtomicLongArray bucket : buckets) {
+                sum += bucket.get(indexes[i]);
+            }
+            min = Math.min(min, sum);
+        }
+        return min;
+    }
+
+    /**
+     * 双重哈希计算key在每一行中的计数器下标
+     */
+    private static int[] indexes(String key) {
+        long[] hash = MurmurHash.hash128(key.getBytes(StandardCharsets.UTF_8));
+        int[] indexes = new int[DEPTH];
+        for (int i = 0; i < DEPTH; i++) {
+            long combined = hash[0] + i * hash[1];
+            indexes[i] = i * WIDTH + (int) Math.floorMod(combined, (long) WIDTH);
+        }
+        return indexes;
+    }
+}
@@ -0,0 +1,29 @@
+package com.hmdp.utils;
+
+import java.util.Map;
+
+/**
+ * 全局唯一id生成器
+ * id的高32位为相对开始时间的秒数，低32位由实现决定，按时间大致递增
+ */
+public interface IdGenerator {
+
+    /**
+     * 开始时间戳 2025.10.26.0.0.0
+     */
+    long BEGIN_TIME_STAMP = 1761436800L;
+
+    long nextId(String prefix);
+
+    /**
+     * 查询生成器的运行统计
+     */
+    Map<String, Object> getStats();
+
+    /**
+     * 拼接时间戳和低32位，用于在lua脚本中自增序列号、在java中拼接id的场景（lua的数字无法精确表示64位整数）
+     */
+    static long compose(long timestamp, long low) {
+        return timestamp << 32 | low;
+    }
+}
@@ -0,0 +1,219 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.entity.VoucherOrder;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_STATUS_CHANNEL;
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_STATUS_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_STATUS_TTL;
+
+/**
+ * 异步秒杀订单的状态
+ * 订单id的高32位是秒级时间戳，按小时分桶保存在 seckill:status:{ts/3600} 的hash中，
+ * field为 {ts%3600}:{id的低32位}，即订单id在桶内的唯一表示；value为 {状态码}:{用户id}，查询时据此校验订单归属。
+ * 每次写入都会刷新桶的过期时间，最后一次写入SECKILL_ORDER_STATUS_TTL分钟后整个桶过期。
+ * 状态变化通过发布订阅通知所有节点，唤醒等待该订单结果的长轮询请求
+ */
+@Component
+public class OrderStatusStore {
+
+    public enum Status {
+        /**
+         * 已抢到，等待写入数据库
+         */
+        QUEUED,
+        /**
+         * 已写入数据库
+         */
+        PERSISTED,
+        /**
+         * 写入失败，不会再重试
+         */
+        FAILED,
+        /**
+         * 超过时间仍未写入数据库
+         */
+        TIMED_OUT,
+        /**
+         * 订单不存在或状态已过期
+         */
+        UNKNOWN;
+
+        public boolean isFinal() {
+            return this == PERSISTED || this == FAILED;
+        }
+    }
+
+    private static final long BUCKET_SECONDS = TimeUnit.HOURS.toSeconds(1);
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+    @Resource
+    private RedisIdGenerator redisIdGenerator;
+
+    /**
+     * 订单排队超过该时间（毫秒）仍未写入数据库则返回TIMED_OUT
+     */
+    @Value("${hmdp.seckill.status.timeout:300000}")
+    private long timeout;
+
+    /**
+     * 等待订单状态变化的回调
+     */
+    private final Map<Long, Set<Consumer<Status>>> waiters = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    private void init() {
+        // 消息格式：{状态码}:{订单id},{订单id}...
+        redisMessageListenerContainer.addMessageListener((message, pattern) -> {
+            String body = new String(message.getBody(), StandardCharsets.UTF_8);
+            int index = body.indexOf(':');
+            Status status = Status.values()[Integer.parseInt(body.substring(0, index))];
+            for (String id : StrUtil.split(body.substring(index + 1), ',')) {
+                notifyWaiters(Long.valueOf(id), status);
+            }
+        }, new ChannelTopic(SECKILL_ORDER_STATUS_CHANNEL));
+    }
+
+    /**
+     * 订单状态所在的key，按订单id的时间戳部分计算
+     */
+    private static String statusKey(long timestamp) {
+        return SECKILL_ORDER_STATUS_KEY + timestamp / BUCKET_SECONDS;
+    }
+
+    /**
+     * 订单状态的field前缀：时间戳在桶内的秒数，本地生成的id每秒重新计数，只用低32位会在同一个桶内重复
+     */
+    private static String statusFieldPrefix(long timestamp) {
+        return timestamp % BUCKET_SECONDS + ":";
+    }
+
+    private static String statusField(long orderId) {
+        return statusFieldPrefix(orderId >>> 32) + (orderId & 0xFFFFFFFFL);
+    }
+
+    public static long statusTtlSeconds() {
+        return TimeUnit.MINUTES.toSeconds(SECKILL_ORDER_STATUS_TTL);
+    }
+
+    /**
+     * 订单状态中记录的用户id，状态不存在或已过期时返回null
+     */
+    public Long owner(long orderId) {
+        String value = read(orderId);
+        return value == null ? null : Long.valueOf(value.substring(value.indexOf(':') + 1));
+    }
+
+    public Status get(long orderId) {
+        String value = read(orderId);
+        if (value == null) {
+            return Status.UNKNOWN;
+        }
+        Status status = Status.values()[Integer.parseInt(value.substring(0, value.indexOf(':')))];
+        long timestamp = orderId >>> 32;
+        // 排队太久的订单视为超时，之后写入成功仍会变为PERSISTED
+        long age = redisIdGenerator.timestamp(LocalDateTime.now()) - timestamp;
+        if (status == Status.QUEUED && TimeUnit.SECONDS.toMillis(age) > timeout) {
+            return Status.TIMED_OUT;
+        }
+        return status;
+    }
+
+    /**
+     * 在调用方的pipeline中记录订单排队中，状态已存在时不覆盖，避免覆盖消费者先写入的最终状态
+     */
+    public static void markQueued(StringRedisConnection connection, long orderId, Long userId) {
+        String key = statusKey(orderId >>> 32);
+        connection.hSetNX(key, statusField(orderId), Status.QUEUED.ordinal() + ":" + userId);
+        connection.expire(key, statusTtlSeconds());
+    }
+
+    private String read(long orderId) {
+        Object value = stringRedisTemplate.opsForHash().get(statusKey(orderId >>> 32), statusField(orderId));
+        return value == null ? null : value.toString();
+    }
+
+    public void markPersisted(Collection<VoucherOrder> orders) {
+        mark(orders, Status.PERSISTED);
+    }
+
+    public void markFailed(Collection<VoucherOrder> orders) {
+        mark(orders, Status.FAILED);
+    }
+
+    /**
+     * 批量更新状态并通知所有节点，一次往返完成
+     * 同时刷新桶的过期时间，状态过期后才写入的订单不会留下永不过期的桶
+     */
+    private void mark(Collection<VoucherOrder> orders, Status status) {
+        if (orders.isEmpty()) {
+            return;
+        }
+        String code = String.valueOf(status.ordinal());
+        long ttl = statusTtlSeconds();
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            Set<String> keys = new HashSet<>();
+            for (VoucherOrder order : orders) {
+                String key = statusKey(order.getId() >>> 32);
+                conn.hSet(key, statusField(order.getId()), code + ":" + order.getUserId());
+                keys.add(key);
+            }
+            for (String key : keys) {
+                conn.expire(key, ttl);
+            }
+            conn.publish(SECKILL_ORDER_STATUS_CHANNEL, code + ":"
+                    + orders.stream().map(order -> String.valueOf(order.getId())).collect(Collectors.joining(",")));
+            return null;
+        });
+    }
+
+    /**
+     * 等待订单进入最终状态，已是最终状态时立即回调
+     * @return 取消等待的操作，超时或请求结束时调用
+     */
+    public Runnable await(long orderId, Consumer<Status> callback) {
+        // 先登记再查询，避免查询之后、登记之前的通知丢失
+        waiters.computeIfAbsent(orderId, id -> ConcurrentHashMap.newKeySet()).add(callback);
+        Runnable cancel = () -> waiters.computeIfPresent(orderId, (id, set) -> {
+            set.remove(callback);
+            return set.isEmpty() ? null : set;
+        });
+        Status status = get(orderId);
+        if (status.isFinal()) {
+            cancel.run();
+            callback.accept(status);
+        }
+        return cancel;
+    }
+
+    private void notifyWaiters(Long orderId, Status status) {
+        Set<Consumer<Status>> callbacks = waiters.remove(orderId);
+        if (callbacks != null) {
+            callbacks.forEach(callback -> callback.accept(status));
+        }
+    }
+}
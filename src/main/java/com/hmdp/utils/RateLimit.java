@@ -0,0 +1,59 @@
+package com.hmdp.utils;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Repeatable;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 接口限流，由RateLimitInterceptor在进入controller之前检查，超过限制时返回429
+ * 同一个接口可以同时声明多个限制，例如每个用户的本地限制加上整个接口的全局限制
+ */
+@Documented
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+@Repeatable(RateLimit.List.class)
+public @interface RateLimit {
+
+    /**
+     * 限流维度：USER按当前登录用户（未登录时按IP），IP按客户端地址，PATH整个接口共用一个桶
+     */
+    enum Key {
+        USER, IP, PATH
+    }
+
+    /**
+     * LOCAL在每个节点内存中限流，不访问redis；GLOBAL通过redis中的令牌桶在所有节点间共享
+     */
+    enum Scope {
+        LOCAL, GLOBAL
+    }
+
+    /**
+     * 限制的名称，默认为 {controller}.{方法名}:{key}:{scope}
+     */
+    String name() default "";
+
+    Key key() default Key.USER;
+
+    Scope scope() default Scope.LOCAL;
+
+    /**
+     * 每秒产生的令牌数，可以小于1
+     */
+    double permitsPerSecond();
+
+    /**
+     * 桶的容量，即允许的突发请求数，默认为每秒的令牌数（至少为1）
+     */
+    int burst() default 0;
+
+    @Documented
+    @Target(ElementType.METHOD)
+    @Retention(RetentionPolicy.RUNTIME)
+    @interface List {
+        RateLimit[] value();
+    }
+}
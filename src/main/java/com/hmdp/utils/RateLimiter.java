@@ -0,0 +1,140 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.hmdp.utils.RedisConstants.RATE_LIMIT_KEY;
+import static com.hmdp.utils.RedisScriptRegistry.RATE_LIMIT;
+
+/**
+ * 令牌桶限流
+ * LOCAL：每个key一个本地令牌桶，PATH维度整个接口共用一个桶，按CPU数分片减少竞争
+ * GLOBAL：redis中的令牌桶，被拒绝后在本地记住需要等待的时间，等待期间的请求直接拒绝，不再访问redis；
+ * redis不可用时放行，避免限流拖垮整个接口
+ */
+@Slf4j
+@Component
+public class RateLimiter {
+
+    private static final int STRIPES = Runtime.getRuntime().availableProcessors();
+    private static final long ERROR_LOG_INTERVAL = TimeUnit.SECONDS.toNanos(10);
+
+    @Resource
+    private RedisScriptRegistry redisScriptRegistry;
+
+    private final Map<String, Limit> limits = new ConcurrentHashMap<>();
+    private final AtomicLong lastErrorLog = new AtomicLong(System.nanoTime() - ERROR_LOG_INTERVAL);
+
+    /**
+     * 尝试获取一个令牌
+     * @param name 限制的名称
+     * @param key 限流维度的值，例如用户id、IP，PATH维度为空字符串
+     */
+    public boolean tryAcquire(String name, RateLimit rateLimit, String key) {
+        Limit limit = limits.computeIfAbsent(name, n -> new Limit(rateLimit));
+        boolean allowed = rateLimit.scope() == RateLimit.Scope.GLOBAL
+                ? tryAcquireGlobal(name, limit, key)
+                : limit.buckets.computeIfAbsent(key, k -> limit.newBucket()).tryAcquire();
+        (allowed ? limit.allowed : limit.rejected).increment();
+        return allowed;
+    }
+
+    /**
+     * 查询各限制的放行、拒绝次数
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new TreeMap<>();
+        limits.forEach((name, limit) -> stats.put(name, limit.getStats()));
+        return stats;
+    }
+
+    /**
+     * 回收已补满的本地令牌桶和已过期的等待标记，避免按用户、IP限流时不断增长
+     */
+    @Scheduled(initialDelayString = "${hmdp.rate-limit.cleanup-interval:60000}",
+            fixedDelayString = "${hmdp.rate-limit.cleanup-interval:60000}")
+    public void cleanUp() {
+        long now = System.nanoTime();
+        for (Limit limit : limits.values()) {
+            limit.buckets.values().removeIf(bucket -> bucket.isFull(now));
+            limit.retryAt.values().removeIf(time -> time - now <= 0);
+        }
+    }
+
+    private boolean tryAcquireGlobal(String name, Limit limit, String key) {
+        // 1.仍在上次被拒绝后的等待时间内，直接拒绝
+        long now = System.nanoTime();
+        Long retryAt = limit.retryAt.get(key);
+        if (retryAt != null && retryAt - now > 0) {
+            return false;
+        }
+        // 2.访问redis中的令牌桶
+        Long wait;
+        try {
+            wait = redisScriptRegistry.execute(RATE_LIMIT, Collections.singletonList(RATE_LIMIT_KEY + name + ":" + key),
+                    String.valueOf(limit.permitsPerSecond), String.valueOf(limit.burst),
+                    String.valueOf(System.currentTimeMillis()));
+        } catch (Exception e) {
+            limit.errors.increment();
+            long last = lastErrorLog.get();
+            if (now - last >= ERROR_LOG_INTERVAL && lastErrorLog.compareAndSet(last, now)) {
+                log.warn("限流脚本执行失败，暂时放行：{}", name, e);
+            }
+            return true;
+        }
+        if (wait == null || wait == 0) {
+            return true;
+        }
+        limit.retryAt.put(key, now + TimeUnit.MILLISECONDS.toNanos(wait));
+        return false;
+    }
+
+    private static class Limit {
+        private final RateLimit.Key key;
+        private final double permitsPerSecond;
+        private final int burst;
+        /**
+         * 本地令牌桶，key为限流维度的值
+         */
+        private final Map<String, TokenBucket> buckets = new ConcurrentHashMap<>();
+        /**
+         * 全局限流被拒绝后，下一个令牌产生的时间（纳秒）
+         */
+        private final Map<String, Long> retryAt = new ConcurrentHashMap<>();
+        private final LongAdder allowed = new LongAdder();
+        private final LongAdder rejected = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+
+        Limit(RateLimit rateLimit) {
+            this.key = rateLimit.key();
+            this.permitsPerSecond = rateLimit.permitsPerSecond();
+            this.burst = rateLimit.burst() > 0 ? rateLimit.burst() : (int) Math.max(1, Math.ceil(permitsPerSecond));
+        }
+
+        TokenBucket newBucket() {
+            return new TokenBucket(permitsPerSecond, burst, key == RateLimit.Key.PATH ? STRIPES : 1);
+        }
+
+        Map<String, Object> getStats() {
+            Map<String, Object> stats = new LinkedHashMap<>();
+            stats.put("permitsPerSecond", permitsPerSecond);
+            stats.put("burst", burst);
+            stats.put("allowed", allowed.sum());
+            stats.put("rejected", rejected.sum());
+            stats.put("errors", errors.sum());
+            stats.put("buckets", buckets.size() + retryAt.size());
+            return stats;
+        }
+    }
+}
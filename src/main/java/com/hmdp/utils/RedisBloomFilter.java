@@ -0,0 +1,194 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.hash.MurmurHash;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.hmdp.utils.RedisConstants.BLOOM_FILTER_KEY;
+
+/**
+ * 基于redis bitmap的布隆过滤器，所有节点共享同一份位数组
+ * 判断不存在则一定不存在，判断存在则有一定的误判率
+ */
+public class RedisBloomFilter {
+
+    /**
+     * redis bitmap最大为512MB
+     */
+    private static final long MAX_BITS = 1L << 32;
+
+    /**
+     * 本地缓存ready标记的时长，过期后重新读取redis
+     */
+    private static final long READY_CHECK_INTERVAL_MILLIS = 5000;
+
+    private final String key;
+    private final String readyKey;
+    private final long expectedInsertions;
+    private final double fpp;
+    private final long numBits;
+    private final int numHashFunctions;
+    private final StringRedisTemplate stringRedisTemplate;
+    private volatile boolean ready;
+    private volatile long readyCheckedAt;
+
+    /**
+     * @param name 过滤器名称，对应redis中的 bloom:{name}
+     * @param expectedInsertions 预计插入的元素数量
+     * @param fpp 期望的误判率
+     */
+    public RedisBloomFilter(String name, long expectedInsertions, double fpp, StringRedisTemplate stringRedisTemplate) {
+        this.key = BLOOM_FILTER_KEY + name;
+        this.readyKey = key + ":ready";
+        this.expectedInsertions = expectedInsertions;
+        this.fpp = fpp;
+        this.stringRedisTemplate = stringRedisTemplate;
+        // 位数组长度 m = -n*ln(p) / (ln2)^2
+        long bits = (long) (-expectedInsertions * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+        this.numBits = Math.min(Math.max(bits, 64), MAX_BITS);
+        // 哈希函数个数 k = m/n * ln2
+        this.numHashFunctions = Math.max(1, (int) Math.round((double) numBits / expectedInsertions * Math.log(2)));
+    }
+
+    /**
+     * 判断元素是否可能存在，k次GETBIT通过管道一次发送
+     */
+    public boolean mightContain(Object value) {
+        long[] offsets = offsets(value);
+        List<Object> bits = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (long offset : offsets) {
+                conn.getBit(key, offset);
+            }
+            return null;
+        });
+        for (Object bit : bits) {
+            if (!Boolean.TRUE.equals(bit)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 批量判断，返回可能存在的元素，所有GETBIT通过一次管道发送
+     */
+    public <T> List<T> filterMightContain(List<T> values) {
+        if (values.isEmpty()) {
+            return values;
+        }
+        List<Object> bits = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (T value : values) {
+                for (long offset : offsets(value)) {
+                    conn.getBit(key, offset);
+                }
+            }
+            return null;
+        });
+        List<T> result = new ArrayList<>(values.size());
+        for (int i = 0; i < values.size(); i++) {
+            boolean contains = true;
+            for (int j = 0; j < numHashFunctions && contains; j++) {
+                contains = Boolean.TRUE.equals(bits.get(i * numHashFunctions + j));
+            }
+            if (contains) {
+                result.add(values.get(i));
+            }
+        }
+        return result;
+    }
+
+    public void put(Object value) {
+        putAll(Collections.singletonList(value));
+    }
+
+    /**
+     * 批量添加元素，通过管道一次发送所有SETBIT
+     */
+    public void putAll(Collection<?> values) {
+        if (values.isEmpty()) {
+            return;
+        }
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (Object value : values) {
+                for (long offset : offsets(value)) {
+                    conn.setBit(key, offset, true);
+                }
+            }
+            return null;
+        });
+    }
+
+    /**
+     * 过滤器是否已经完成初始化，未初始化完成的过滤器不能用来拦截请求
+     * ready标记只在本地缓存几秒，redis中的位数组被清空或重建时标记随之消失，各节点很快放行请求
+     */
+    public boolean isReady() {
+        long now = System.currentTimeMillis();
+        if (now - readyCheckedAt < READY_CHECK_INTERVAL_MILLIS) {
+            return ready;
+        }
+        try {
+            ready = Boolean.TRUE.equals(stringRedisTemplate.hasKey(readyKey));
+        } catch (Exception e) {
+            // 读取失败时同样放行，不能因为过滤器不可用而拦截请求
+            ready = false;
+        }
+        readyCheckedAt = now;
+        return ready;
+    }
+
+    public void markReady() {
+        stringRedisTemplate.opsForValue().set(readyKey, "1");
+        ready = true;
+        readyCheckedAt = System.currentTimeMillis();
+    }
+
+    /**
+     * 查询过滤器的内存占用和误判率
+     */
+    public Map<String, Object> getStats() {
+        Long bitCount = stringRedisTemplate.execute(
+                (RedisCallback<Long>) connection -> ((StringRedisConnection) connection).bitCount(key));
+        long setBits = bitCount == null ? 0 : bitCount;
+        double fillRatio = (double) setBits / numBits;
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("key", key);
+        stats.put("ready", isReady());
+        stats.put("numBits", numBits);
+        stats.put("numHashFunctions", numHashFunctions);
+        stats.put("memoryBytes", numBits / 8);
+        stats.put("expectedInsertions", expectedInsertions);
+        // 根据置位比例估算已插入的元素数量 n = -m/k * ln(1 - X/m)
+        stats.put("estimatedInsertions", fillRatio >= 1 ? expectedInsertions
+                : Math.round(-numBits / (double) numHashFunctions * Math.log(1 - fillRatio)));
+        stats.put("expectedFpp", fpp);
+        // 当前误判率 (X/m)^k
+        stats.put("currentFpp", Math.pow(fillRatio, numHashFunctions));
+        return stats;
+    }
+
+    /**
+     * 双重哈希计算k个偏移量：h1 + i * h2
+     */
+    private long[] offsets(Object value) {
+        long[] hash = MurmurHash.hash128(value.toString());
+        long[] offsets = new long[numHashFunctions];
+        long combined = hash[0];
+        for (int i = 0; i < numHashFunctions; i++) {
+            offsets[i] = (combined & Long.MAX_VALUE) % numBits;
+            combined += hash[1];
+        }
+        return offsets;
+    }
+}
@@ -11,11 +11,55 @@ public class RedisConstants {
     public static final Long CACHE_SHOP_TTL = 30L;
     public static final String CACHE_SHOP_KEY = "cache:shop:";
 
+    public static final Long CACHE_USER_TTL = 30L;
+    public static final String CACHE_USER_KEY = "cache:user:";
+
+    public static final Long CACHE_BLOG_TTL = 30L;
+    public static final String CACHE_BLOG_KEY = "cache:blog:";
+
+    public static final String CACHE_WARM_KEY = "cache:warm:";
+    public static final Long LOCK_CACHE_WARM_TTL = 30L;
+
+    public static final String BLOOM_FILTER_KEY = "bloom:";
+    public static final Double BLOOM_FILTER_FPP = 0.01;
+
+    public static final String CACHE_INVALIDATE_CHANNEL = "cache:invalidate";
+    public static final Integer CACHE_LOCAL_CAPACITY = 10000;
+    public static final Long CACHE_LOCAL_TTL = 10L;
+    public static final Long CACHE_HOT_REPLICA_TTL = 3L;
+
+    public static final Double CACHE_EARLY_REFRESH_BETA = 1.0;
+
     public static final String LOCK_SHOP_KEY = "lock:shop:";
     public static final Long LOCK_SHOP_TTL = 10L;
+    // 缓存重建锁，后面拼接完整的缓存key，不同前缀的缓存互不影响
+    public static final String LOCK_CACHE_KEY = "lock:";
+
+    public static final String RATE_LIMIT_KEY = "limit:";
+
+    public static final String ID_WORKER_KEY = "id:worker:";
+    public static final Long ID_WORKER_TTL = 30L;
 
     public static final String SECKILL_STOCK_KEY = "seckill:stock:";
+    public static final String SECKILL_SEGMENTS_KEY = "seckill:segments:";
+    public static final String SECKILL_SOLD_KEY = "seckill:sold:";
+    public static final String SECKILL_ORDER_STREAM_KEY = "stream.orders.";
+    public static final String SECKILL_ORDER_DLQ_KEY = "stream.orders.dlq";
+    public static final Long LOCK_STREAM_RETENTION_TTL = 10L;
+    public static final String SECKILL_ORDER_KEY = "seckill:order:";
+    public static final String SECKILL_VOUCHER_KEY = "seckill:voucher:";
+    public static final Long SECKILL_VOUCHER_RETAIN_TTL = 1L;
+    public static final String SECKILL_RECONCILE_KEY = "seckill:reconcile";
+    public static final String SECKILL_RECONCILE_LAST_KEY = "seckill:reconcile:last";
+    public static final Long LOCK_SECKILL_RECONCILE_TTL = 5L;
+    public static final String SECKILL_SOLD_OUT_CHANNEL = "seckill:soldout";
+    public static final Long SECKILL_SOLD_OUT_TTL = 30L;
+    public static final String SECKILL_ORDER_STATUS_KEY = "seckill:status:";
+    public static final String SECKILL_ORDER_STATUS_CHANNEL = "seckill:status";
+    public static final Long SECKILL_ORDER_STATUS_TTL = 120L;
     public static final String BLOG_LIKED_KEY = "blog:liked:";
+    public static final String BLOG_LIKED_COUNT_KEY = "blog:liked:count:";
+    public static final Long BLOG_LIKED_COUNT_TTL = 30L;
     public static final String FEED_KEY = "feed:";
     public static final String SHOP_GEO_KEY = "shop:geo:";
     public static final String USER_SIGN_KEY = "sign:";
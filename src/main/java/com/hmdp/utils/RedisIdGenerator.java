@@ -1,40 +1,199 @@
 package com.hmdp.utils;
 
 
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Component;
 
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
+@Slf4j
 @Component
-public class RedisIdGenerator {
+public class RedisIdGenerator implements IdGenerator {
 
-    public RedisIdGenerator(StringRedisTemplate stringRedisTemplate) {
+    /**
+     * INCR：每个id自增一次redis；SEGMENT：每次用INCRBY租用一段序列号，在本地分配
+     */
+    public enum Mode {
+        INCR, SEGMENT
+    }
+
+    public RedisIdGenerator(StringRedisTemplate stringRedisTemplate,
+                            @Value("${hmdp.id.mode:INCR}") Mode mode,
+                            @Value("${hmdp.id.segment-size:1000}") int segmentSize) {
         this.stringRedisTemplate = stringRedisTemplate;
+        this.mode = mode;
+        this.segmentSize = segmentSize;
+        this.prefetchThreshold = Math.max(1, segmentSize * 8 / 10);
     }
 
     private StringRedisTemplate stringRedisTemplate;
+    private final Mode mode;
+    private final int segmentSize;
     /**
-     * 开始时间戳 2025.10.26.0.0.0
+     * 当前号段用到该位置时异步预取下一段
      */
-    private static final long BEGIN_TIME_STAMP = 1761436800L;
+    private final long prefetchThreshold;
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy:MM:dd");
+
+    /**
+     * 每个前缀的号段
+     */
+    private final Map<String, SegmentBuffer> buffers = new ConcurrentHashMap<>();
+    private volatile ExecutorService prefetchExecutor;
+    private final LongAdder leaseCount = new LongAdder();
+    private final LongAdder prefetchCount = new LongAdder();
+
+    @Override
     public long nextId(String prefix) {
         // 1.生成时间戳
         LocalDateTime now = LocalDateTime.now();
-        long nowSecond = now.toEpochSecond(ZoneOffset.UTC);
-        long timestamp = nowSecond - BEGIN_TIME_STAMP;
+        long timestamp = timestamp(now);
 
-        // 2.生成序列号
-        // 2.1.获取当前日期
-        String date = now.format(DateTimeFormatter.ofPattern("yyyy:MM:dd"));
-        // 2.2 自增长
-        long count = stringRedisTemplate.opsForValue().increment("irc:" + prefix + ":" + date);
+        // 2.生成序列号，每天一个key自增长
+        long count = mode == Mode.SEGMENT
+                ? nextFromSegment(prefix, countKey(prefix, now))
+                : stringRedisTemplate.opsForValue().increment(countKey(prefix, now));
 
         //拼接并返回
-        return timestamp << 32 | count;
+        return IdGenerator.compose(timestamp, count);
+    }
+
+    /**
+     * 相对开始时间的秒数
+     */
+    public long timestamp(LocalDateTime now) {
+        return now.toEpochSecond(ZoneOffset.UTC) - BEGIN_TIME_STAMP;
     }
 
+    /**
+     * 序列号的key，每天一个
+     */
+    public String countKey(String prefix, LocalDateTime now) {
+        return "irc:" + prefix + ":" + now.format(DATE_FORMATTER);
+    }
 
+    /**
+     * 查询号段的租用和预取次数
+     */
+    @Override
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("mode", mode);
+        stats.put("segmentSize", segmentSize);
+        stats.put("leases", leaseCount.sum());
+        stats.put("prefetches", prefetchCount.sum());
+        return stats;
+    }
+
+    /**
+     * 从本地号段分配序列号，与INCR模式以及秒杀脚本共用同一个key，INCRBY得到的区间互不重叠，id全局唯一
+     * 号段用完或跨天时同步租用新号段，未用完的序列号直接丢弃
+     */
+    private long nextFromSegment(String prefix, String countKey) {
+        SegmentBuffer buffer = buffers.computeIfAbsent(prefix, p -> new SegmentBuffer());
+        while (true) {
+            Segment segment = buffer.current;
+            if (segment != null && segment.countKey.equals(countKey)) {
+                // 1.无锁分配
+                long seq = segment.cursor.getAndIncrement();
+                if (seq < segment.end) {
+                    if (seq - segment.start == prefetchThreshold) {
+                        prefetch(buffer, countKey);
+                    }
+                    return seq;
+                }
+            }
+            // 2.号段用完或跨天，优先使用预取的号段
+            synchronized (buffer) {
+                if (buffer.current == segment) {
+                    Segment next = buffer.next;
+                    buffer.next = null;
+                    buffer.current = next != null && next.countKey.equals(countKey) ? next : lease(countKey);
+                }
+            }
+        }
+    }
+
+    private void prefetch(SegmentBuffer buffer, String countKey) {
+        if (!buffer.loading.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            prefetchExecutor().execute(() -> {
+                try {
+                    Segment next = lease(countKey);
+                    synchronized (buffer) {
+                        buffer.next = next;
+                    }
+                    prefetchCount.increment();
+                } catch (Exception e) {
+                    log.warn("预取号段失败：{}", countKey, e);
+                } finally {
+                    buffer.loading.set(false);
+                }
+            });
+        } catch (RuntimeException e) {
+            buffer.loading.set(false);
+            throw e;
+        }
+    }
+
+    /**
+     * INCRBY key size，得到 (v - size, v] 这一段序列号
+     */
+    private Segment lease(String countKey) {
+        Long max = stringRedisTemplate.opsForValue().increment(countKey, segmentSize);
+        leaseCount.increment();
+        return new Segment(countKey, max - segmentSize + 1, max + 1);
+    }
+
+    private ExecutorService prefetchExecutor() {
+        if (prefetchExecutor == null) {
+            synchronized (this) {
+                if (prefetchExecutor == null) {
+                    prefetchExecutor = Executors.newSingleThreadExecutor(r -> {
+                        Thread thread = new Thread(r, "id-segment-prefetch");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+                }
+            }
+        }
+        return prefetchExecutor;
+    }
+
+    private static class SegmentBuffer {
+        private volatile Segment current;
+        private volatile Segment next;
+        private final AtomicBoolean loading = new AtomicBoolean();
+    }
+
+    private static class Segment {
+        private final String countKey;
+        private final long start;
+        /**
+         * 不包含
+         */
+        private final long end;
+        private final AtomicLong cursor;
+
+        Segment(String countKey, long start, long end) {
+            this.countKey = countKey;
+            this.start = start;
+            this.end = end;
+            this.cursor = new AtomicLong(start);
+        }
+    }
 }
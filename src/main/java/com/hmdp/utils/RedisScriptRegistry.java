@@ -0,0 +1,207 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.io.IoUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.DefaultScriptExecutor;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.serializer.RedisSerializer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * lua脚本注册表
+ * 所有脚本放在classpath的lua目录下，启动时校验并通过SCRIPT LOAD预加载，
+ * 执行时始终使用EVALSHA，redis返回NOSCRIPT（重启、SCRIPT FLUSH、切换主节点）时重新加载后重试一次
+ */
+@Slf4j
+public class RedisScriptRegistry {
+
+    public static final String SECKILL = "seckill";
+    public static final String UNLOCK = "unlock";
+    public static final String SECKILL_SNAPSHOT = "seckill_snapshot";
+    public static final String SECKILL_ROLLBACK = "seckill_rollback";
+    public static final String SECKILL_DEDUCT = "seckill_deduct";
+    public static final String RENEW = "renew";
+    public static final String RATE_LIMIT = "rate_limit";
+
+    private static final String LOCATION = "lua/";
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final ReloadingScriptExecutor executor;
+    private final Map<String, ScriptEntry<?>> scripts = new ConcurrentHashMap<>();
+
+    public RedisScriptRegistry(StringRedisTemplate stringRedisTemplate) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.executor = new ReloadingScriptExecutor(stringRedisTemplate);
+    }
+
+    /**
+     * 注册 lua/{name}.lua，脚本不存在或为空时直接失败
+     */
+    public <T> RedisScriptRegistry register(String name, Class<T> resultType) {
+        ClassPathResource resource = new ClassPathResource(LOCATION + name + ".lua");
+        String text;
+        try (InputStream in = resource.getInputStream()) {
+            text = IoUtil.read(in, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new IllegalStateException("lua脚本不存在：" + resource.getPath(), e);
+        }
+        if (text.trim().isEmpty()) {
+            throw new IllegalStateException("lua脚本为空：" + resource.getPath());
+        }
+        scripts.put(name, new ScriptEntry<>(name, new DefaultRedisScript<>(text, resultType)));
+        return this;
+    }
+
+    /**
+     * 通过SCRIPT LOAD预加载所有脚本，并校验redis返回的SHA1与本地计算的一致
+     * redis不可用时只记录日志，执行时会再次加载
+     */
+    public void preload() {
+        try {
+            stringRedisTemplate.execute((RedisConnection connection) -> {
+                for (ScriptEntry<?> entry : scripts.values()) {
+                    load(connection, entry);
+                }
+                return null;
+            }, true);
+            log.info("已预加载{}个lua脚本：{}", scripts.size(), scripts.keySet());
+        } catch (IllegalStateException e) {
+            throw e;
+        } catch (Exception e) {
+            log.warn("预加载lua脚本失败，将在首次执行时加载", e);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T> T execute(String name, List<String> keys, Object... args) {
+        ScriptEntry<T> entry = (ScriptEntry<T>) scripts.get(name);
+        if (entry == null) {
+            throw new IllegalArgumentException("未注册的lua脚本：" + name);
+        }
+        long begin = System.nanoTime();
+        try {
+            return executor.execute(entry.script, keys, args);
+        } catch (RuntimeException e) {
+            entry.errors.increment();
+            throw e;
+        } finally {
+            entry.record((System.nanoTime() - begin) / 1000);
+        }
+    }
+
+    /**
+     * 查询各脚本的执行次数、耗时和重新加载次数
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        scripts.values().forEach(entry -> stats.put(entry.name, entry.getStats()));
+        return stats;
+    }
+
+    private static void load(RedisConnection connection, ScriptEntry<?> entry) {
+        String sha = connection.scriptingCommands()
+                .scriptLoad(entry.script.getScriptAsString().getBytes(StandardCharsets.UTF_8));
+        if (!entry.script.getSha1().equals(sha)) {
+            throw new IllegalStateException("lua脚本" + entry.name + "的SHA1不一致，本地："
+                    + entry.script.getSha1() + "，redis：" + sha);
+        }
+    }
+
+    private ScriptEntry<?> find(RedisScript<?> script) {
+        for (ScriptEntry<?> entry : scripts.values()) {
+            if (entry.script == script) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    private static boolean isNoScript(Throwable e) {
+        while (e != null) {
+            if (e.getMessage() != null && e.getMessage().contains("NOSCRIPT")) {
+                return true;
+            }
+            e = e.getCause();
+        }
+        return false;
+    }
+
+    /**
+     * 只使用EVALSHA的执行器，默认实现遇到NOSCRIPT时会改用EVAL发送整个脚本
+     */
+    private class ReloadingScriptExecutor extends DefaultScriptExecutor<String> {
+
+        ReloadingScriptExecutor(StringRedisTemplate template) {
+            super(template);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        protected <T> T eval(RedisConnection connection, RedisScript<T> script, ReturnType returnType,
+                             int numKeys, byte[][] keysAndArgs, RedisSerializer<T> resultSerializer) {
+            Object result;
+            try {
+                result = connection.scriptingCommands().evalSha(script.getSha1(), returnType, numKeys, keysAndArgs);
+            } catch (Exception e) {
+                ScriptEntry<?> entry = find(script);
+                if (entry == null || !isNoScript(e)) {
+                    throw e;
+                }
+                // 脚本缓存已被清空，重新加载后重试一次
+                entry.reloads.increment();
+                log.warn("lua脚本{}不在redis脚本缓存中，重新加载", entry.name);
+                load(connection, entry);
+                result = connection.scriptingCommands().evalSha(script.getSha1(), returnType, numKeys, keysAndArgs);
+            }
+            return script.returnsRawValue() ? (T) result : deserializeResult(resultSerializer, result);
+        }
+    }
+
+    private static class ScriptEntry<T> {
+        private final String name;
+        private final DefaultRedisScript<T> script;
+        private final LongAdder calls = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder reloads = new LongAdder();
+        // 执行耗时，单位微秒
+        private final LongAdder totalMicros = new LongAdder();
+        private final AtomicLong maxMicros = new AtomicLong();
+
+        ScriptEntry(String name, DefaultRedisScript<T> script) {
+            this.name = name;
+            this.script = script;
+        }
+
+        void record(long micros) {
+            calls.increment();
+            totalMicros.add(micros);
+            maxMicros.accumulateAndGet(micros, Math::max);
+        }
+
+        Map<String, Object> getStats() {
+            long count = calls.sum();
+            Map<String, Object> stats = new LinkedHashMap<>();
+            stats.put("sha1", script.getSha1());
+            stats.put("calls", count);
+            stats.put("errors", errors.sum());
+            stats.put("reloads", reloads.sum());
+            stats.put("avgMicros", count == 0 ? 0 : (double) totalMicros.sum() / count);
+            stats.put("maxMicros", maxMicros.get());
+            return stats;
+        }
+    }
+}
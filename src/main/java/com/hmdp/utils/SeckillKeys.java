@@ -0,0 +1,97 @@
+package com.hmdp.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.IntFunction;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_SEGMENTS_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_SOLD_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_STOCK_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_VOUCHER_KEY;
+
+/**
+ * 秒杀券在redis中的key
+ * 券级别的key以 {voucherId} 作为hash tag；每个库存分段的key以 {voucherId:i} 作为hash tag，
+ * 分段的描述信息副本、库存、已售数量和用户已购数量位于同一个槽，集群中不同分段可以分布在不同的分片上，
+ * 秒杀脚本每次只访问一个分段
+ */
+public class SeckillKeys {
+
+    /**
+     * 描述信息 seckill:voucher:{id}，保存总库存和分段数
+     */
+    public static String descriptorKey(Long voucherId) {
+        return SECKILL_VOUCHER_KEY + "{" + voucherId + "}";
+    }
+
+    /**
+     * 分段数 seckill:segments:{id}，与库存一起写入
+     */
+    public static String segmentsKey(Long voucherId) {
+        return SECKILL_SEGMENTS_KEY + "{" + voucherId + "}";
+    }
+
+    /**
+     * 分段的描述信息副本 seckill:voucher:{id:i}，保存开始结束时间和限购数量
+     */
+    public static String segmentDescriptorKey(Long voucherId, int segment) {
+        return SECKILL_VOUCHER_KEY + tag(voucherId, segment);
+    }
+
+    /**
+     * 分段库存 seckill:stock:{id:i}
+     */
+    public static String stockKey(Long voucherId, int segment) {
+        return SECKILL_STOCK_KEY + tag(voucherId, segment);
+    }
+
+    /**
+     * 分段已售数量 seckill:sold:{id:i}，与分段库存在同一个脚本中修改
+     */
+    public static String soldKey(Long voucherId, int segment) {
+        return SECKILL_SOLD_KEY + tag(voucherId, segment);
+    }
+
+    /**
+     * 用户已购数量 seckill:order:{id:i}，记录在用户所在的分段中
+     */
+    public static String orderKey(Long voucherId, int segment) {
+        return SECKILL_ORDER_KEY + tag(voucherId, segment);
+    }
+
+    /**
+     * 用户所在的分段，同一用户总是落在同一个分段，限购在该分段中校验
+     */
+    public static int homeSegment(long userId, int segments) {
+        return (int) Math.floorMod(userId, (long) segments);
+    }
+
+    public static List<String> segmentDescriptorKeys(Long voucherId, int segments) {
+        return keys(segments, segment -> segmentDescriptorKey(voucherId, segment));
+    }
+
+    public static List<String> stockKeys(Long voucherId, int segments) {
+        return keys(segments, segment -> stockKey(voucherId, segment));
+    }
+
+    public static List<String> soldKeys(Long voucherId, int segments) {
+        return keys(segments, segment -> soldKey(voucherId, segment));
+    }
+
+    public static List<String> orderKeys(Long voucherId, int segments) {
+        return keys(segments, segment -> orderKey(voucherId, segment));
+    }
+
+    private static List<String> keys(int segments, IntFunction<String> key) {
+        List<String> keys = new ArrayList<>(segments);
+        for (int i = 0; i < segments; i++) {
+            keys.add(key.apply(i));
+        }
+        return keys;
+    }
+
+    private static String tag(Long voucherId, int segment) {
+        return "{" + voucherId + ":" + segment + "}";
+    }
+}
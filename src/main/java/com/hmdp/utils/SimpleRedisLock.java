@@ -1,9 +1,7 @@
 package com.hmdp.utils;
 
 import cn.hutool.core.lang.UUID;
-import org.springframework.core.io.ClassPathResource;
 import org.springframework.data.redis.core.StringRedisTemplate;
-import org.springframework.data.redis.core.script.DefaultRedisScript;
 
 import java.util.Collections;
 import java.util.concurrent.TimeUnit;
@@ -13,21 +11,16 @@ public class SimpleRedisLock implements ILock{
     private static final String KEY_PREFIX = "lock:";
     //每个线程的UUID不一样，拼接线程号即可
     private static final String THREAD_PREFIX = UUID.fastUUID().toString(true) + "-";
-    //读取lua脚本
-    private static final DefaultRedisScript<Long> UNLOCK_SCRIPT;
-    static {
-        UNLOCK_SCRIPT = new DefaultRedisScript<>();
-        UNLOCK_SCRIPT.setLocation(new ClassPathResource("unlock.lua"));
-        UNLOCK_SCRIPT.setResultType(Long.class);
-
-    }
 
     private String name;
     private StringRedisTemplate stringRedisTemplate;
+    //释放锁的lua脚本由注册表统一加载
+    private RedisScriptRegistry redisScriptRegistry;
 
-    public SimpleRedisLock(String name, StringRedisTemplate stringRedisTemplate) {
+    public SimpleRedisLock(String name, StringRedisTemplate stringRedisTemplate, RedisScriptRegistry redisScriptRegistry) {
         this.name = name;
         this.stringRedisTemplate = stringRedisTemplate;
+        this.redisScriptRegistry = redisScriptRegistry;
     }
 
     @Override
@@ -44,9 +37,9 @@ public class SimpleRedisLock implements ILock{
     @Override
     public void unLock() {
         // 调用lua脚本
-        stringRedisTemplate.execute(
-                UNLOCK_SCRIPT,
-                Collections.singletonList("KEY_PREFIX + name"),
+        redisScriptRegistry.execute(
+                RedisScriptRegistry.UNLOCK,
+                Collections.singletonList(KEY_PREFIX + name),
                 THREAD_PREFIX + Thread.currentThread().getId());
     }
 
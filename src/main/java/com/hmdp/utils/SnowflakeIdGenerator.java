@@ -0,0 +1,204 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.UUID;
+import cn.hutool.core.util.RandomUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.hmdp.utils.RedisConstants.ID_WORKER_KEY;
+import static com.hmdp.utils.RedisScriptRegistry.RENEW;
+
+/**
+ * 本地生成id，只在启动和心跳时访问redis
+ * id = 时间戳(31位，秒) | workerId(10位) | 序列号(22位)，高32位与RedisIdGenerator相同，
+ * 订单状态、对账等按时间戳解析id的逻辑不受影响。每个节点启动时从redis租用一个workerId，定时续期
+ * 时钟回拨不超过maxBackward秒时沿用上次的时间戳继续分配（序列号用完时借用下一秒），超过则拒绝分配，等待时钟追上
+ */
+@Slf4j
+public class SnowflakeIdGenerator implements IdGenerator, AutoCloseable {
+
+    private static final int WORKER_BITS = 10;
+    private static final int SEQUENCE_BITS = 22;
+    public static final int MAX_WORKER_ID = (1 << WORKER_BITS) - 1;
+    private static final long MAX_SEQUENCE = (1L << SEQUENCE_BITS) - 1;
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final RedisScriptRegistry redisScriptRegistry;
+    /**
+     * workerId租约时间（毫秒），每1/3续期一次
+     */
+    private final long leaseTtl;
+    /**
+     * 允许的时钟回拨秒数
+     */
+    private final long maxBackward;
+    /**
+     * 与RedisIdGenerator一样以本地时间计算时间戳，时区偏移在启动时固定，避免夏令时切换造成回拨
+     */
+    private final long offsetSeconds;
+    private final String owner = UUID.fastUUID().toString(true);
+
+    /**
+     * 高位为上次分配的时间戳，低22位为该秒内的序列号，通过CAS无锁更新
+     */
+    private final AtomicLong state = new AtomicLong();
+    private volatile long workerId = -1;
+    /**
+     * 租约的有效截止时间（本地毫秒），只使用租约时间的一半，
+     * 续期失败时在redis中的key过期、其它节点租到同一个workerId之前停止分配
+     */
+    private volatile long validUntil;
+    private ScheduledExecutorService heartbeat;
+
+    private final LongAdder backwardCount = new LongAdder();
+    private final LongAdder renewFailures = new LongAdder();
+
+    public SnowflakeIdGenerator(StringRedisTemplate stringRedisTemplate, RedisScriptRegistry redisScriptRegistry,
+                                long leaseTtl, long maxBackward) {
+        // 停止续期后最多再分配半个租约，加上借用的秒数，必须在key过期前结束
+        if (TimeUnit.SECONDS.toMillis(maxBackward) >= leaseTtl / 2) {
+            throw new IllegalArgumentException("允许回拨的时间必须小于workerId租约时间的一半");
+        }
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.redisScriptRegistry = redisScriptRegistry;
+        this.leaseTtl = leaseTtl;
+        this.maxBackward = maxBackward;
+        this.offsetSeconds = ZoneId.systemDefault().getRules().getOffset(Instant.now()).getTotalSeconds();
+    }
+
+    /**
+     * 租用workerId并开始心跳
+     */
+    public void start() {
+        acquire();
+        state.set(currentSecond() << SEQUENCE_BITS);
+        heartbeat = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "id-worker-heartbeat");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = leaseTtl / 3;
+        heartbeat.scheduleAtFixedRate(this::renew, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public long nextId(String prefix) {
+        // 1.租约失效时拒绝分配，workerId可能已被其它节点使用
+        if (System.currentTimeMillis() >= validUntil) {
+            throw new IllegalStateException("workerId租约已失效");
+        }
+        while (true) {
+            long current = state.get();
+            long second = current >>> SEQUENCE_BITS;
+            long now = currentSecond();
+            long next;
+            if (now > second) {
+                // 2.进入新的一秒，序列号从0开始
+                next = now << SEQUENCE_BITS;
+            } else {
+                // 3.同一秒内或时钟回拨，沿用上次的时间戳，序列号用完时借用下一秒
+                next = (current & MAX_SEQUENCE) == MAX_SEQUENCE ? (second + 1) << SEQUENCE_BITS : current + 1;
+                long ahead = (next >>> SEQUENCE_BITS) - now;
+                if (ahead > maxBackward) {
+                    throw new IllegalStateException("时钟回拨" + ahead + "秒，暂停分配id");
+                }
+            }
+            if (state.compareAndSet(current, next)) {
+                if (now < second) {
+                    backwardCount.increment();
+                }
+                return IdGenerator.compose(next >>> SEQUENCE_BITS, workerId << SEQUENCE_BITS | (next & MAX_SEQUENCE));
+            }
+        }
+    }
+
+    /**
+     * 查询workerId、租约剩余时间和时钟回拨次数
+     */
+    @Override
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("workerId", workerId);
+        stats.put("leaseRemainingMillis", Math.max(0, validUntil - System.currentTimeMillis()));
+        stats.put("backwardIds", backwardCount.sum());
+        stats.put("renewFailures", renewFailures.sum());
+        return stats;
+    }
+
+    /**
+     * 停止心跳，租约缩短为允许回拨的时间，借用的时间戳过去之前其它节点不会租到同一个workerId
+     */
+    @Override
+    public void close() {
+        if (heartbeat != null) {
+            heartbeat.shutdownNow();
+        }
+        validUntil = 0;
+        try {
+            redisScriptRegistry.execute(RENEW, Collections.singletonList(ID_WORKER_KEY + workerId),
+                    owner, String.valueOf(TimeUnit.SECONDS.toMillis(maxBackward + 1)));
+        } catch (Exception e) {
+            log.warn("释放workerId{}失败，等待租约过期", workerId, e);
+        }
+    }
+
+    /**
+     * 从随机位置开始依次尝试 SET id:worker:{n} owner NX PX ttl
+     */
+    private void acquire() {
+        int start = RandomUtil.randomInt(MAX_WORKER_ID + 1);
+        for (int i = 0; i <= MAX_WORKER_ID; i++) {
+            int id = (start + i) & MAX_WORKER_ID;
+            long begin = System.currentTimeMillis();
+            Boolean success = stringRedisTemplate.opsForValue()
+                    .setIfAbsent(ID_WORKER_KEY + id, owner, leaseTtl, TimeUnit.MILLISECONDS);
+            if (Boolean.TRUE.equals(success)) {
+                workerId = id;
+                validUntil = begin + leaseTtl / 2;
+                log.info("已租用workerId：{}", id);
+                return;
+            }
+        }
+        throw new IllegalStateException("没有可用的workerId");
+    }
+
+    /**
+     * 续期租约，租约已丢失时重新租用一个workerId
+     */
+    private void renew() {
+        try {
+            long begin = System.currentTimeMillis();
+            Long result = redisScriptRegistry.execute(RENEW, Collections.singletonList(ID_WORKER_KEY + workerId),
+                    owner, String.valueOf(leaseTtl));
+            if (result != null && result == 1) {
+                validUntil = begin + leaseTtl / 2;
+                return;
+            }
+            renewFailures.increment();
+            log.warn("workerId{}的租约已丢失，重新租用", workerId);
+            validUntil = 0;
+            acquire();
+        } catch (Exception e) {
+            renewFailures.increment();
+            log.warn("workerId{}续期失败", workerId, e);
+        }
+    }
+
+    /**
+     * 相对开始时间的秒数
+     */
+    private long currentSecond() {
+        return System.currentTimeMillis() / 1000 + offsetSeconds - BEGIN_TIME_STAMP;
+    }
+}
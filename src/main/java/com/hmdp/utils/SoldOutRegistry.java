@@ -0,0 +1,89 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_SOLD_OUT_CHANNEL;
+import static com.hmdp.utils.RedisConstants.SECKILL_SOLD_OUT_TTL;
+
+/**
+ * 秒杀券售罄标记
+ * 任意节点发现库存不足后在本地标记并通过发布订阅通知其它节点，之后的请求在内存中直接拒绝；
+ * 补充库存后广播重置消息，所有节点清除标记。标记在SECKILL_SOLD_OUT_TTL后失效，
+ * 由下一个请求重新访问redis确认，避免与重置消息交错时一直处于售罄状态
+ */
+@Slf4j
+@Component
+public class SoldOutRegistry {
+
+    private static final String RESET_PREFIX = "reset:";
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    /**
+     * 已售罄的优惠券及标记的时间
+     */
+    private final Map<Long, Long> soldOut = new ConcurrentHashMap<>();
+    /**
+     * 优惠券最近一次重置的时间，重置之前发出的请求得到的售罄结果不再生效
+     */
+    private final Map<Long, Long> resetTimes = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    private void init() {
+        // 消息格式：售罄为 {voucherId}，重置为 reset:{voucherId}
+        redisMessageListenerContainer.addMessageListener((message, pattern) -> {
+            String body = new String(message.getBody(), StandardCharsets.UTF_8);
+            if (body.startsWith(RESET_PREFIX)) {
+                resetLocal(Long.valueOf(body.substring(RESET_PREFIX.length())));
+            } else {
+                soldOut.put(Long.valueOf(body), System.currentTimeMillis());
+            }
+        }, new ChannelTopic(SECKILL_SOLD_OUT_CHANNEL));
+    }
+
+    public boolean isSoldOut(Long voucherId) {
+        Long markTime = soldOut.get(voucherId);
+        return markTime != null
+                && System.currentTimeMillis() - markTime < TimeUnit.SECONDS.toMillis(SECKILL_SOLD_OUT_TTL);
+    }
+
+    /**
+     * 标记售罄并通知其它节点
+     * @param requestTime 得到库存不足结果的请求的开始时间
+     */
+    public void markSoldOut(Long voucherId, long requestTime) {
+        if (requestTime <= resetTimes.getOrDefault(voucherId, 0L) || isSoldOut(voucherId)) {
+            return;
+        }
+        soldOut.put(voucherId, System.currentTimeMillis());
+        log.info("秒杀券{}已售罄", voucherId);
+        stringRedisTemplate.convertAndSend(SECKILL_SOLD_OUT_CHANNEL, voucherId.toString());
+    }
+
+    /**
+     * 补充库存后清除所有节点的售罄标记
+     */
+    public void reset(Long voucherId) {
+        resetLocal(voucherId);
+        stringRedisTemplate.convertAndSend(SECKILL_SOLD_OUT_CHANNEL, RESET_PREFIX + voucherId);
+    }
+
+    private void resetLocal(Long voucherId) {
+        resetTimes.put(voucherId, System.currentTimeMillis());
+        soldOut.remove(voucherId);
+    }
+}
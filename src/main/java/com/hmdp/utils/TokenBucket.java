@@ -0,0 +1,81 @@
+package com.hmdp.utils;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 无锁的本地令牌桶，使用GCRA算法：每个分片只保存下一个令牌的理论到达时间，一次CAS完成判断和扣减
+ * 多个分片时每个分片分到 1/n 的速率和容量，请求随机落到一个分片，当前分片没有令牌时再尝试一个，
+ * 所有线程不再竞争同一个AtomicLong
+ */
+public class TokenBucket {
+
+    /**
+     * 分片之间间隔128字节，避免伪共享
+     */
+    private static final int PADDING = 16;
+
+    private final int stripes;
+    /**
+     * 每个分片产生一个令牌的纳秒数
+     */
+    private final long interval;
+    /**
+     * 理论到达时间最多可以领先当前时间多少纳秒，即分片容量减1个令牌
+     */
+    private final long tolerance;
+    private final AtomicLongArray arrivals;
+
+    public TokenBucket(double permitsPerSecond, int burst, int stripes) {
+        if (permitsPerSecond <= 0) {
+            throw new IllegalArgumentException("permitsPerSecond必须大于0");
+        }
+        this.stripes = Math.max(1, Math.min(stripes, burst));
+        this.interval = (long) (TimeUnit.SECONDS.toNanos(1) * this.stripes / permitsPerSecond);
+        this.tolerance = (Math.max(1, burst / this.stripes) - 1) * interval;
+        this.arrivals = new AtomicLongArray(this.stripes * PADDING);
+        long now = System.nanoTime();
+        for (int i = 0; i < this.stripes; i++) {
+            arrivals.set(i * PADDING, now);
+        }
+    }
+
+    public boolean tryAcquire() {
+        return tryAcquire(System.nanoTime());
+    }
+
+    boolean tryAcquire(long now) {
+        int stripe = stripes == 1 ? 0 : ThreadLocalRandom.current().nextInt(stripes);
+        if (tryAcquire(stripe, now)) {
+            return true;
+        }
+        return stripes > 1 && tryAcquire((stripe + 1) % stripes, now);
+    }
+
+    /**
+     * 桶已满，没有被使用的令牌，可以回收
+     */
+    public boolean isFull(long now) {
+        for (int i = 0; i < stripes; i++) {
+            if (arrivals.get(i * PADDING) - now > 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean tryAcquire(int stripe, long now) {
+        int index = stripe * PADDING;
+        while (true) {
+            long arrival = arrivals.get(index);
+            long tat = arrival - now > 0 ? arrival : now;
+            if (tat - now > tolerance) {
+                return false;
+            }
+            if (arrivals.compareAndSet(index, arrival, tat + interval)) {
+                return true;
+            }
+        }
+    }
+}
@@ -0,0 +1,29 @@
+-- 令牌桶，KEYS[1]为桶的key，hash中保存剩余令牌数和上次补充的时间
+-- 1.参数列表
+-- 1.1 每秒产生的令牌数
+local rate = tonumber(ARGV[1])
+-- 1.2 桶的容量
+local capacity = tonumber(ARGV[2])
+-- 1.3 当前时间（毫秒）
+local now = tonumber(ARGV[3])
+
+-- 2.按经过的时间补充令牌，各节点时钟不一致时时间不回退
+local bucket = redis.call('hmget', KEYS[1], 'tokens', 'ts')
+local tokens = tonumber(bucket[1]) or capacity
+local ts = tonumber(bucket[2]) or now
+if (now > ts) then
+    tokens = math.min(capacity, tokens + (now - ts) * rate / 1000)
+    ts = now
+end
+
+-- 3.有令牌则扣减并返回0，否则返回还需等待的毫秒数
+local wait = 0
+if (tokens >= 1) then
+    tokens = tokens - 1
+else
+    wait = math.ceil((1 - tokens) * 1000 / rate)
+end
+redis.call('hmset', KEYS[1], 'tokens', tokens, 'ts', ts)
+-- 4.桶补满之后的数据没有意义，过期删除
+redis.call('pexpire', KEYS[1], math.ceil(capacity * 1000 / rate) + 1000)
+return wait
@@ -0,0 +1,7 @@
+---比较之前存入redis的值是否和当前节点的值相同
+if (redis.call('get', KEYS[1]) == ARGV[1]) then
+    -- 相同则续期，单位毫秒
+    return redis.call('pexpire', KEYS[1], ARGV[2])
+end
+-- 已过期或被其它节点持有
+return 0
@@ -0,0 +1,51 @@
+-- 1.参数列表，所有key都属于用户所在的分段，以 {voucherId:i} 为hash tag，集群中位于同一个槽
+-- 1.1 分段的描述信息副本 seckill:voucher:{voucherId:i}
+local voucherKey = KEYS[1]
+-- 1.2 分段的用户已购数量 seckill:order:{voucherId:i}
+local orderKey = KEYS[2]
+-- 1.3 分段库存 seckill:stock:{voucherId:i}
+local stockKey = KEYS[3]
+-- 1.4 分段已售数量 seckill:sold:{voucherId:i}
+local soldKey = KEYS[4]
+-- 1.5 用户id
+local userId = ARGV[1]
+-- 1.6 当前时间（毫秒）
+local now = tonumber(ARGV[2])
+-- 1.7 本分段售罄时是否还有其它分段可以尝试
+local fallover = ARGV[3] == '1'
+
+-- 2.查询描述信息：开始结束时间、每人限购数量
+local voucher = redis.call('hmget', voucherKey, 'begin', 'end', 'limit')
+if (voucher[1] == false) then
+    return {5}
+end
+
+-- 3.脚本业务
+-- 3.1 判断是否在秒杀时间内
+if (now < tonumber(voucher[1])) then
+    return {3}
+end
+if (now > tonumber(voucher[2])) then
+    return {4}
+end
+-- 3.2 判断用户是否达到限购数量
+local bought = tonumber(redis.call('hget', orderKey, userId))
+if (bought ~= nil and bought >= tonumber(voucher[3])) then
+    return {2}
+end
+-- 3.3 判断库存是否充足
+local stock = tonumber(redis.call('get', stockKey))
+if (stock == nil or stock <= 0) then
+    if (not fallover) then
+        return {1}
+    end
+    -- 本分段售罄，先记录已购数量占住限购名额，由调用方依次从其它分段扣减，都售罄时再归还
+    redis.call('hincrby', orderKey, userId, 1)
+    return {6}
+end
+-- 3.4 扣库存，同时增加本分段的已售数量
+redis.call('incrby', stockKey, -1)
+redis.call('incrby', soldKey, 1)
+-- 3.5 记录用户已购数量
+redis.call('hincrby', orderKey, userId, 1)
+return {0}
@@ -0,0 +1,10 @@
+-- 从其它分段扣减库存，用户所在分段售罄时由调用方依次调用，限购已在用户所在分段中校验并记录
+-- KEYS[1] 分段库存 seckill:stock:{voucherId:i}
+-- KEYS[2] 分段已售数量 seckill:sold:{voucherId:i}
+local stock = tonumber(redis.call('get', KEYS[1]))
+if (stock == nil or stock <= 0) then
+    return 0
+end
+redis.call('incrby', KEYS[1], -1)
+redis.call('incrby', KEYS[2], 1)
+return 1
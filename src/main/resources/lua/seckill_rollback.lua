@@ -0,0 +1,6 @@
+-- 归还秒杀脚本扣减的分段库存，订单消息发送失败时调用，用户已购数量在用户所在的分段中单独归还
+-- KEYS[1] 扣减的分段库存 seckill:stock:{voucherId:i}
+-- KEYS[2] 该分段的已售数量 seckill:sold:{voucherId:i}
+redis.call('incrby', KEYS[1], 1)
+redis.call('incrby', KEYS[2], -1)
+return 1
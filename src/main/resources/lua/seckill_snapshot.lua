@@ -0,0 +1,4 @@
+-- 原子读取一个分段的库存和已售数量，返回 {库存, 已售数量}，二者在秒杀脚本中同时修改，之和不随抢购变化
+-- KEYS[1] 分段库存 seckill:stock:{voucherId:i}
+-- KEYS[2] 分段已售数量 seckill:sold:{voucherId:i}
+return {tonumber(redis.call('get', KEYS[1]) or 0), tonumber(redis.call('get', KEYS[2]) or 0)}
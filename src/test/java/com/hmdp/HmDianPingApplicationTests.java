@@ -6,7 +6,12 @@ import cn.hutool.core.lang.UUID;
 import cn.hutool.core.util.RandomUtil;
 import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.User;
+import com.hmdp.entity.VoucherOrder;
+import com.hmdp.service.IVoucherOrderService;
 import com.hmdp.utils.RedisIdGenerator;
+import com.hmdp.utils.RedisScriptRegistry;
+import com.hmdp.utils.SeckillKeys;
+import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.data.redis.core.StringRedisTemplate;
@@ -16,10 +21,16 @@ import java.io.BufferedWriter;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisScriptRegistry.SECKILL;
+import static com.hmdp.utils.RedisScriptRegistry.SECKILL_DEDUCT;
 
 @SpringBootTest
 class HmDianPingApplicationTests {
@@ -30,27 +41,65 @@ class HmDianPingApplicationTests {
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
+    @Resource
+    private IVoucherOrderService voucherOrderService;
+
+    @Resource
+    private RedisScriptRegistry redisScriptRegistry;
+
     private ExecutorService es = Executors.newFixedThreadPool(500);
+    /**
+     * 校验多线程生成的id没有重复，吞吐量见 benchmark.IdGeneratorBenchmark
+     */
     @Test
     void testIdGenerator() throws InterruptedException {
         CountDownLatch latch = new CountDownLatch(300);
+        Set<Long> ids = ConcurrentHashMap.newKeySet();
 
         Runnable task = ()-> {
             for (int i = 0; i < 100; i++) {
-                long id = redisIdGenerator.nextId("order");
-                System.out.println("id=" + id);
+                ids.add(redisIdGenerator.nextId("order"));
             }
             latch.countDown();
         };
 
-        long begin = System.currentTimeMillis();
         for (int i = 0; i < 300; i++) {
             es.submit(task);
         }
         latch.await();
-        long end = System.currentTimeMillis();
+        Assertions.assertEquals(300 * 100, ids.size());
+    }
 
-        System.out.println("time = " + (end - begin));
+    /**
+     * 校验两种序列号模式下多线程生成的id没有重复，吞吐量见 benchmark.IdGeneratorBenchmark
+     * INCR模式每个id访问一次redis，SEGMENT模式每1000个id访问一次
+     */
+    @Test
+    void testIdGeneratorModes() throws InterruptedException {
+        int threads = 100;
+        int idsPerThread = 1000;
+        for (RedisIdGenerator.Mode mode : RedisIdGenerator.Mode.values()) {
+            RedisIdGenerator generator = new RedisIdGenerator(stringRedisTemplate, mode, 1000);
+            Set<Long> ids = ConcurrentHashMap.newKeySet();
+            CountDownLatch latch = new CountDownLatch(threads);
+            for (int t = 0; t < threads; t++) {
+                es.submit(() -> {
+                    try {
+                        for (int i = 0; i < idsPerThread; i++) {
+                            ids.add(generator.nextId("test"));
+                        }
+                    } finally {
+                        latch.countDown();
+                    }
+                });
+            }
+            latch.await();
+            Assertions.assertEquals(threads * idsPerThread, ids.size());
+        }
+        Set<String> keys = stringRedisTemplate.keys("irc:test:*");
+        if (keys != null) {
+            stringRedisTemplate.delete(keys);
+        }
     }
 
     @Test
@@ -82,4 +131,113 @@ class HmDianPingApplicationTests {
         }
 
     }
+
+    /**
+     * 校验逐条创建和批量创建的订单全部写入数据库
+     * 使用不存在的优惠券id，只扣减0行库存，测试结束后删除插入的订单
+     */
+    @Test
+    void testCreateVoucherOrders() {
+        int total = 5000;
+        int batchSize = 100;
+        List<VoucherOrder> orders = new ArrayList<>(total * 2);
+        for (int i = 0; i < total * 2; i++) {
+            VoucherOrder order = new VoucherOrder();
+            order.setId(redisIdGenerator.nextId("order"));
+            order.setUserId((long) i);
+            order.setVoucherId(0L);
+            orders.add(order);
+        }
+        List<Long> ids = orders.stream().map(VoucherOrder::getId).collect(Collectors.toList());
+        try {
+            // 1.逐条处理：每条订单一个事务
+            for (VoucherOrder order : orders.subList(0, total)) {
+                voucherOrderService.createVoucherOrder(order);
+            }
+            // 2.批量处理：每batchSize条订单一个事务
+            for (int i = total; i < total * 2; i += batchSize) {
+                voucherOrderService.createVoucherOrders(orders.subList(i, i + batchSize));
+            }
+            // 3.校验所有订单都已写入
+            Assertions.assertEquals(total * 2, voucherOrderService.listByIds(ids).size());
+        } finally {
+            voucherOrderService.removeByIds(ids);
+        }
+    }
+
+    /**
+     * 校验不同库存分段数下并发抢购时库存全部卖完且没有超卖，吞吐量见 loadtest.SeckillLoadTest
+     * 与下单接口相同：先在用户所在分段执行秒杀脚本，该分段售罄时依次从其它分段扣减，都售罄时归还限购名额
+     */
+    @Test
+    void testSegmentedStock() throws InterruptedException {
+        int stock = 10000;
+        int threads = 200;
+        int requestsPerThread = 100;
+        for (int segments : new int[]{1, 2, 4, 8}) {
+            long voucherId = 900000 + segments;
+            // 1.写入各分段的描述信息副本、库存和已售数量
+            Map<String, String> descriptor = new HashMap<>();
+            descriptor.put("begin", "0");
+            descriptor.put("end", String.valueOf(Long.MAX_VALUE));
+            descriptor.put("limit", "1");
+            for (int i = 0; i < segments; i++) {
+                stringRedisTemplate.opsForHash().putAll(SeckillKeys.segmentDescriptorKey(voucherId, i), descriptor);
+                stringRedisTemplate.opsForValue().set(SeckillKeys.stockKey(voucherId, i),
+                        String.valueOf(stock / segments + (i < stock % segments ? 1 : 0)));
+                stringRedisTemplate.opsForValue().set(SeckillKeys.soldKey(voucherId, i), "0");
+            }
+            // 2.并发抢购，每个请求使用不同的用户
+            LongAdder success = new LongAdder();
+            CountDownLatch latch = new CountDownLatch(threads);
+            for (int t = 0; t < threads; t++) {
+                int thread = t;
+                es.submit(() -> {
+                    try {
+                        for (int i = 0; i < requestsPerThread; i++) {
+                            long userId = (long) thread * requestsPerThread + i;
+                            if (seckill(voucherId, segments, userId)) {
+                                success.increment();
+                            }
+                        }
+                    } finally {
+                        latch.countDown();
+                    }
+                });
+            }
+            latch.await();
+            // 3.校验库存全部卖完且没有超卖，各分段已售数量之和等于库存
+            Assertions.assertEquals(stock, success.sum());
+            List<String> sold = stringRedisTemplate.opsForValue().multiGet(SeckillKeys.soldKeys(voucherId, segments));
+            Assertions.assertEquals(stock, sold.stream().mapToLong(Long::parseLong).sum());
+            // 4.清理数据
+            List<String> keys = new ArrayList<>();
+            keys.addAll(SeckillKeys.segmentDescriptorKeys(voucherId, segments));
+            keys.addAll(SeckillKeys.stockKeys(voucherId, segments));
+            keys.addAll(SeckillKeys.soldKeys(voucherId, segments));
+            keys.addAll(SeckillKeys.orderKeys(voucherId, segments));
+            stringRedisTemplate.delete(keys);
+        }
+    }
+
+    private boolean seckill(long voucherId, int segments, long userId) {
+        int home = SeckillKeys.homeSegment(userId, segments);
+        List<Long> result = redisScriptRegistry.execute(SECKILL, Arrays.asList(
+                        SeckillKeys.segmentDescriptorKey(voucherId, home), SeckillKeys.orderKey(voucherId, home),
+                        SeckillKeys.stockKey(voucherId, home), SeckillKeys.soldKey(voucherId, home)),
+                String.valueOf(userId), String.valueOf(System.currentTimeMillis()), segments > 1 ? "1" : "0");
+        if (result.get(0) != 6) {
+            return result.get(0) == 0;
+        }
+        for (int i = 1; i < segments; i++) {
+            int segment = (home + i) % segments;
+            Long deducted = redisScriptRegistry.execute(SECKILL_DEDUCT,
+                    Arrays.asList(SeckillKeys.stockKey(voucherId, segment), SeckillKeys.soldKey(voucherId, segment)));
+            if (deducted == 1) {
+                return true;
+            }
+        }
+        stringRedisTemplate.opsForHash().increment(SeckillKeys.orderKey(voucherId, home), String.valueOf(userId), -1);
+        return false;
+    }
 }
@@ -0,0 +1,121 @@
+package com.hmdp.benchmark;
+
+import com.hmdp.entity.Blog;
+import com.hmdp.entity.Shop;
+import com.hmdp.utils.BinaryCacheCodec;
+import com.hmdp.utils.CacheCodec;
+import com.hmdp.utils.JsonCacheCodec;
+import com.hmdp.utils.RedisData;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.time.LocalDateTime;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 对比JSON与二进制编解码器的编解码耗时和每条缓存占用的字节数
+ * 运行：执行main方法，或 mvn -Pbenchmark test 运行所有基准测试
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CacheCodecBenchmark {
+
+    @Param({"json", "binary"})
+    private String codecName;
+
+    @Param({"shop", "blog"})
+    private String entity;
+
+    private CacheCodec codec;
+    private Class<?> type;
+    private Object value;
+    private RedisData redisData;
+    private byte[] encoded;
+    private byte[] encodedWithExpire;
+
+    @Setup
+    public void setup() {
+        codec = createCodec(codecName);
+        type = "shop".equals(entity) ? Shop.class : Blog.class;
+        value = "shop".equals(entity) ? sampleShop() : sampleBlog();
+        redisData = new RedisData();
+        redisData.setExpireTime(LocalDateTime.now().plusMinutes(30));
+        redisData.setData(value);
+        encoded = codec.encode(value);
+        encodedWithExpire = codec.encodeWithExpire(redisData);
+        if (!value.equals(codec.decode(encoded, type))
+                || !value.equals(codec.decodeWithExpire(encodedWithExpire, type).getData())) {
+            throw new IllegalStateException(codecName + "编解码结果不一致");
+        }
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return codec.encode(value);
+    }
+
+    @Benchmark
+    public Object decode() {
+        return codec.decode(encoded, type);
+    }
+
+    @Benchmark
+    public byte[] encodeWithExpire() {
+        return codec.encodeWithExpire(redisData);
+    }
+
+    @Benchmark
+    public RedisData decodeWithExpire() {
+        return codec.decodeWithExpire(encodedWithExpire, type);
+    }
+
+    private static CacheCodec createCodec(String name) {
+        return "json".equals(name) ? new JsonCacheCodec() : new BinaryCacheCodec();
+    }
+
+    static Shop sampleShop() {
+        return new Shop()
+                .setId(1L).setName("103茶餐厅").setTypeId(1L)
+                .setImages("https://qcloud.dpfile.com/pc/jiclIsCKmOI2arxKN1Uf0Hx3PucIJH8q0QSz-Z8llzcN56-_QiKuOvyio1OOxsRtFoXqu0G3iT2T27qat3WhLVEuLYk00OmSS1IdNpm8K8sG4JN9RIm2mTKcbLtc2o2vfCF2ubeXzk49OsGrXt_KYDCngOyCwZK-s3fqawWswzk.jpg")
+                .setArea("大关").setAddress("金华路锦昌文华苑29号")
+                .setX(120.149192).setY(30.316078)
+                .setAvgPrice(80L).setSold(4215).setComments(3035).setScore(37)
+                .setOpenHours("10:00-22:00")
+                .setCreateTime(LocalDateTime.of(2021, 12, 22, 18, 10, 39))
+                .setUpdateTime(LocalDateTime.of(2022, 1, 13, 17, 32, 19));
+    }
+
+    static Blog sampleBlog() {
+        return new Blog()
+                .setId(4L).setShopId(4L).setUserId(2L)
+                .setTitle("无尽浪漫的夜晚丨在万花丛中摇晃着红酒杯🍷品战斧牛排🥩")
+                .setImages("/imgs/blogs/7/14/4771fefb-1a87-4252-816c-9f7ec41ffa4a.jpg,/imgs/blogs/4/10/2f07e3c9-ddce-482d-9ea7-c21450f8d7cd.jpg")
+                .setContent("生活就是一半烟火·一半诗意<br/>手执烟火谋生活·心怀诗意以谋爱·<br/>当然<br/>男朋友给不了的浪漫要学会自己给🍒<br/>无法重来的一生·尽量快乐.")
+                .setLiked(46).setComments(104)
+                .setCreateTime(LocalDateTime.of(2021, 12, 28, 19, 50, 1))
+                .setUpdateTime(LocalDateTime.of(2022, 3, 10, 14, 26, 34));
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        // 打印每条缓存占用的字节数
+        for (String name : new String[]{"json", "binary"}) {
+            CacheCodec codec = createCodec(name);
+            RedisData shopData = new RedisData();
+            shopData.setExpireTime(LocalDateTime.now());
+            shopData.setData(sampleShop());
+            RedisData blogData = new RedisData();
+            blogData.setExpireTime(LocalDateTime.now());
+            blogData.setData(sampleBlog());
+            System.out.printf("%-6s shop=%dB shopWithExpire=%dB blog=%dB blogWithExpire=%dB%n", name,
+                    codec.encode(sampleShop()).length, codec.encodeWithExpire(shopData).length,
+                    codec.encode(sampleBlog()).length, codec.encodeWithExpire(blogData).length);
+        }
+        new Runner(new OptionsBuilder().include(CacheCodecBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,62 @@
+package com.hmdp.benchmark;
+
+import com.hmdp.utils.IdGenerator;
+import com.hmdp.utils.RedisIdGenerator;
+import com.hmdp.utils.RedisScriptRegistry;
+import com.hmdp.utils.SnowflakeIdGenerator;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 对比各id生成器在多线程下的吞吐量，redis使用进程内替身，rttMicros模拟每条命令的网络往返
+ * INCR模式每个id一次往返，SEGMENT模式每1000个id一次，snowflake只在租用workerId时访问redis
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class IdGeneratorBenchmark {
+
+    @Param({"incr", "segment", "snowflake"})
+    private String generator;
+
+    @Param({"0", "100"})
+    private long rttMicros;
+
+    private IdGenerator idGenerator;
+
+    @Setup
+    public void setup() {
+        InMemoryRedisTemplate redis = new InMemoryRedisTemplate(rttMicros);
+        switch (generator) {
+            case "incr":
+                idGenerator = new RedisIdGenerator(redis, RedisIdGenerator.Mode.INCR, 1000);
+                break;
+            case "segment":
+                idGenerator = new RedisIdGenerator(redis, RedisIdGenerator.Mode.SEGMENT, 1000);
+                break;
+            default:
+                // 租约足够长，测试期间不续期；每秒400万个序列号用完后会借用后面的秒数，允许借用的时间放宽到租约的一半以内
+                SnowflakeIdGenerator snowflake = new SnowflakeIdGenerator(redis, new RedisScriptRegistry(redis),
+                        TimeUnit.HOURS.toMillis(1), TimeUnit.MINUTES.toSeconds(29));
+                snowflake.start();
+                idGenerator = snowflake;
+        }
+    }
+
+    @Benchmark
+    public long nextId() {
+        return idGenerator.nextId("order");
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(IdGeneratorBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,87 @@
+package com.hmdp.benchmark;
+
+import org.springframework.data.redis.core.HashOperations;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 进程内的redis替身，基准测试不依赖redis服务即可运行
+ * 只实现被测代码用到的命令，每条命令可以模拟一次网络往返的耗时
+ */
+public class InMemoryRedisTemplate extends StringRedisTemplate {
+
+    private final long rttNanos;
+    private final Map<String, String> values = new ConcurrentHashMap<>();
+    private final Map<String, Map<Object, Object>> hashes = new ConcurrentHashMap<>();
+
+    /**
+     * @param rttMicros 每条命令的模拟往返耗时（微秒），0表示不模拟
+     */
+    public InMemoryRedisTemplate(long rttMicros) {
+        this.rttNanos = TimeUnit.MICROSECONDS.toNanos(rttMicros);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public ValueOperations<String, String> opsForValue() {
+        return (ValueOperations<String, String>) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[]{ValueOperations.class}, (proxy, method, args) -> {
+                    roundTrip();
+                    String key = (String) args[0];
+                    switch (method.getName()) {
+                        case "get":
+                            return values.get(key);
+                        case "set":
+                            values.put(key, (String) args[1]);
+                            return null;
+                        case "setIfAbsent":
+                            return values.putIfAbsent(key, (String) args[1]) == null;
+                        case "increment":
+                            long delta = args.length > 1 ? ((Number) args[1]).longValue() : 1;
+                            return Long.valueOf(values.merge(key, String.valueOf(delta),
+                                    (old, d) -> String.valueOf(Long.parseLong(old) + Long.parseLong(d))));
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <HK, HV> HashOperations<String, HK, HV> opsForHash() {
+        return (HashOperations<String, HK, HV>) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[]{HashOperations.class}, (proxy, method, args) -> {
+                    roundTrip();
+                    String key = (String) args[0];
+                    switch (method.getName()) {
+                        case "entries":
+                            return hashes.getOrDefault(key, Collections.emptyMap());
+                        case "putAll":
+                            hashes.computeIfAbsent(key, k -> new ConcurrentHashMap<>()).putAll((Map<?, ?>) args[1]);
+                            return null;
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+
+    @Override
+    public Boolean expire(String key, long timeout, TimeUnit unit) {
+        // 替身中的数据不过期
+        roundTrip();
+        return values.containsKey(key) || hashes.containsKey(key);
+    }
+
+    private void roundTrip() {
+        if (rttNanos > 0) {
+            LockSupport.parkNanos(rttNanos);
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package com.hmdp.benchmark;
+
+import cn.hutool.core.bean.BeanUtil;
+import com.hmdp.dto.UserDTO;
+import com.hmdp.interceptor.RefreshInterceptor;
+import com.hmdp.utils.RegexPatterns;
+import com.hmdp.utils.RegexUtils;
+import com.hmdp.utils.UserHolder;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import static com.hmdp.utils.RedisConstants.LOGIN_USER_KEY;
+
+/**
+ * 每个请求都会经过的登录相关代码：RefreshInterceptor中redis hash转UserDTO、手机号校验、UserHolder存取
+ * 手写转换和预编译正则作为对照
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LoginPathBenchmark {
+
+    private static final String TOKEN = "9f3b2c7e5a1d4e8f";
+    private static final Pattern PHONE_PATTERN = Pattern.compile(RegexPatterns.PHONE_REGEX);
+
+    private Map<Object, Object> userMap;
+    private UserDTO user;
+    private RefreshInterceptor refreshInterceptor;
+    private MockHttpServletRequest request;
+    private MockHttpServletResponse response;
+
+    @Setup
+    public void setup() {
+        // 与UserServiceImpl登录时写入redis的格式相同，所有字段都是字符串
+        userMap = new HashMap<>();
+        userMap.put("id", "1010");
+        userMap.put("nickName", "user_slxaxy2au9f3tanffaxr");
+        userMap.put("icon", "/imgs/icons/kkjtbcr.jpg");
+        user = BeanUtil.fillBeanWithMap(userMap, new UserDTO(), false);
+
+        InMemoryRedisTemplate redis = new InMemoryRedisTemplate(0);
+        redis.opsForHash().putAll(LOGIN_USER_KEY + TOKEN, userMap);
+        refreshInterceptor = new RefreshInterceptor(redis);
+        request = new MockHttpServletRequest();
+        request.addHeader("authorization", TOKEN);
+        response = new MockHttpServletResponse();
+    }
+
+    @Benchmark
+    public UserDTO fillBeanWithMap() {
+        return BeanUtil.fillBeanWithMap(userMap, new UserDTO(), false);
+    }
+
+    @Benchmark
+    public UserDTO manualMapping() {
+        UserDTO userDTO = new UserDTO();
+        userDTO.setId(Long.valueOf((String) userMap.get("id")));
+        userDTO.setNickName((String) userMap.get("nickName"));
+        userDTO.setIcon((String) userMap.get("icon"));
+        return userDTO;
+    }
+
+    /**
+     * 完整的preHandle + afterCompletion，redis访问不计网络耗时
+     */
+    @Benchmark
+    public UserDTO refreshInterceptor() throws Exception {
+        refreshInterceptor.preHandle(request, response, null);
+        UserDTO userDTO = UserHolder.getUser();
+        refreshInterceptor.afterCompletion(request, response, null, null);
+        return userDTO;
+    }
+
+    @Benchmark
+    public boolean isPhoneInvalid(PhoneState state) {
+        return RegexUtils.isPhoneInvalid(state.phone);
+    }
+
+    @Benchmark
+    public boolean precompiledPhonePattern(PhoneState state) {
+        return !PHONE_PATTERN.matcher(state.phone).matches();
+    }
+
+    @Benchmark
+    public UserDTO userHolder() {
+        UserHolder.saveUser(user);
+        UserDTO userDTO = UserHolder.getUser();
+        UserHolder.removeUser();
+        return userDTO;
+    }
+
+    /**
+     * 合法和非法手机号，只用于手机号校验
+     */
+    @State(Scope.Benchmark)
+    public static class PhoneState {
+        @Param({"13812345678", "1381234567x"})
+        private String phone;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(LoginPathBenchmark.class.getSimpleName()).build()).run();
+    }
+}
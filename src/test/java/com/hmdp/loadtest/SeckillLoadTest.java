@@ -0,0 +1,311 @@
+package com.hmdp.loadtest;
+
+import cn.hutool.core.io.FileUtil;
+import cn.hutool.core.io.IoUtil;
+import cn.hutool.core.lang.UUID;
+import cn.hutool.json.JSONUtil;
+import com.hmdp.dto.Result;
+import com.hmdp.entity.SeckillVoucher;
+import com.hmdp.entity.Voucher;
+import com.hmdp.entity.VoucherOrder;
+import com.hmdp.service.ISeckillVoucherService;
+import com.hmdp.service.IVoucherOrderService;
+import com.hmdp.service.IVoucherService;
+import com.hmdp.utils.SeckillKeys;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.web.server.LocalServerPort;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import javax.annotation.Resource;
+import java.io.File;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.LOGIN_USER_KEY;
+import static org.junit.jupiter.api.Assertions.assertAll;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 秒杀接口的端到端压测，发版前运行：mvn -Ploadtest test -Dloadtest.users=2000 -Dloadtest.stock=500
+ * 在随机端口启动应用，使用本地的redis和mysql，创建一张新的秒杀券和N个用户的登录token，
+ * 并发请求 POST /voucher-order/seckill/{id}，记录延迟分布和吞吐量，等待订单异步写入数据库后校验：
+ * 没有超卖、一人一单、抢到的订单全部写入数据库、redis和数据库的库存一致
+ */
+@EnabledIfSystemProperty(named = "loadtest", matches = "true")
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+class SeckillLoadTest {
+
+    static {
+        // HttpURLConnection默认每个地址只保持5个长连接，高并发时会不断新建连接
+        System.setProperty("http.maxConnections", String.valueOf(Integer.getInteger("loadtest.concurrency", 200)));
+    }
+
+    private static final long USER_ID_BASE = 1_000_000L;
+    private static final DateTimeFormatter REPORT_TIME = DateTimeFormatter.ofPattern("yyyyMMddHHmmss");
+
+    private final int users = Integer.getInteger("loadtest.users", 2000);
+    private final int stock = Integer.getInteger("loadtest.stock", 500);
+    private final int segments = Integer.getInteger("loadtest.segments", 4);
+    private final int concurrency = Integer.getInteger("loadtest.concurrency", 200);
+    private final int requestsPerUser = Integer.getInteger("loadtest.requests-per-user", 2);
+    private final long settleTimeout = Long.getLong("loadtest.settle-timeout", 60000L);
+    private final boolean keepData = Boolean.getBoolean("loadtest.keep-data");
+
+    @LocalServerPort
+    private int port;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private IVoucherService voucherService;
+    @Resource
+    private ISeckillVoucherService seckillVoucherService;
+    @Resource
+    private IVoucherOrderService voucherOrderService;
+
+    @Test
+    void seckill() throws Exception {
+        // 1.准备秒杀券和用户
+        Long voucherId = createVoucher();
+        List<String> tokens = createSessions();
+        try {
+            // 2.并发抢购
+            LoadResult result = fire(voucherId, tokens);
+            // 3.等待订单写入数据库
+            long settleBegin = System.currentTimeMillis();
+            long persisted = awaitPersisted(voucherId, result.orderIds.size());
+            long settleMillis = System.currentTimeMillis() - settleBegin;
+            // 4.输出报告并校验
+            report(voucherId, result, persisted, settleMillis);
+            verify(voucherId, result);
+        } finally {
+            if (!keepData) {
+                cleanUp(voucherId, tokens);
+            }
+        }
+    }
+
+    private Long createVoucher() {
+        Voucher voucher = new Voucher()
+                .setShopId(1L)
+                .setTitle("压测秒杀券")
+                .setPayValue(100L)
+                .setActualValue(1000L)
+                .setType(1)
+                .setStatus(1)
+                .setStock(stock)
+                .setSegments(segments)
+                .setUserLimit(1)
+                .setBeginTime(LocalDateTime.now().minusMinutes(1))
+                .setEndTime(LocalDateTime.now().plusHours(1));
+        voucherService.addSeckillVoucher(voucher);
+        return voucher.getId();
+    }
+
+    /**
+     * 与登录接口写入相同格式的token，一次管道写入
+     */
+    private List<String> createSessions() {
+        List<String> tokens = new ArrayList<>(users);
+        for (int i = 0; i < users; i++) {
+            tokens.add("loadtest-" + UUID.fastUUID().toString(true));
+        }
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (int i = 0; i < users; i++) {
+                String key = LOGIN_USER_KEY + tokens.get(i);
+                Map<String, String> user = new HashMap<>();
+                user.put("id", String.valueOf(USER_ID_BASE + i));
+                user.put("nickName", "loadtest_" + i);
+                user.put("icon", "");
+                conn.hMSet(key, user);
+                conn.expire(key, TimeUnit.MINUTES.toSeconds(30));
+            }
+            return null;
+        });
+        return tokens;
+    }
+
+    /**
+     * 每个用户请求requestsPerUser次，打乱顺序后由concurrency个线程同时发送
+     */
+    private LoadResult fire(Long voucherId, List<String> tokens) throws InterruptedException {
+        List<Integer> requests = new ArrayList<>(users * requestsPerUser);
+        for (int i = 0; i < users; i++) {
+            for (int j = 0; j < requestsPerUser; j++) {
+                requests.add(i);
+            }
+        }
+        Collections.shuffle(requests);
+
+        LoadResult result = new LoadResult();
+        String url = "http://localhost:" + port + "/voucher-order/seckill/" + voucherId;
+        AtomicInteger cursor = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(concurrency);
+        ExecutorService es = Executors.newFixedThreadPool(concurrency);
+        for (int t = 0; t < concurrency; t++) {
+            es.submit(() -> {
+                try {
+                    start.await();
+                    int i;
+                    while ((i = cursor.getAndIncrement()) < requests.size()) {
+                        int user = requests.get(i);
+                        long begin = System.nanoTime();
+                        String outcome = post(url, tokens.get(user), result, USER_ID_BASE + user);
+                        result.latency.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - begin));
+                        result.outcomes.computeIfAbsent(outcome, k -> new LongAdder()).increment();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        long begin = System.currentTimeMillis();
+        start.countDown();
+        done.await();
+        result.elapsedMillis = System.currentTimeMillis() - begin;
+        es.shutdown();
+        return result;
+    }
+
+    /**
+     * 发送一次秒杀请求
+     * @return 结果分类：成功、业务失败信息或异常
+     */
+    private String post(String url, String token, LoadResult result, long userId) {
+        try {
+            HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+            connection.setRequestMethod("POST");
+            connection.setRequestProperty("authorization", token);
+            connection.setConnectTimeout(5000);
+            connection.setReadTimeout(30000);
+            int status = connection.getResponseCode();
+            InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+            String body = in == null ? "" : IoUtil.read(in, StandardCharsets.UTF_8);
+            if (status != 200) {
+                return "HTTP " + status;
+            }
+            Result response = JSONUtil.toBean(body, Result.class);
+            if (!Boolean.TRUE.equals(response.getSuccess())) {
+                return String.valueOf(response.getErrorMsg());
+            }
+            result.orderIds.add(Long.valueOf(response.getData().toString()));
+            result.successByUser.computeIfAbsent(userId, k -> new LongAdder()).increment();
+            return "success";
+        } catch (Exception e) {
+            return e.getClass().getSimpleName();
+        }
+    }
+
+    /**
+     * 轮询数据库中该券的订单数，直到与抢购成功的数量相同或超时
+     */
+    private long awaitPersisted(Long voucherId, int expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + settleTimeout;
+        long count = countOrders(voucherId);
+        while (count < expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(200);
+            count = countOrders(voucherId);
+        }
+        return count;
+    }
+
+    private void verify(Long voucherId, LoadResult result) {
+        List<VoucherOrder> orders = voucherOrderService.query()
+                .select("id", "user_id")
+                .eq("voucher_id", voucherId)
+                .list();
+        Set<Long> persistedIds = orders.stream().map(VoucherOrder::getId).collect(Collectors.toSet());
+        long distinctUsers = orders.stream().map(VoucherOrder::getUserId).distinct().count();
+        SeckillVoucher seckillVoucher = seckillVoucherService.getById(voucherId);
+        Object redisStock = voucherService.querySeckillStock(voucherId).get("stock");
+        int accepted = result.orderIds.size();
+        assertAll(
+                // 没有超卖
+                () -> assertTrue(accepted <= stock, "抢购成功" + accepted + "次，超过库存" + stock),
+                () -> assertTrue(orders.size() <= stock, "订单数" + orders.size() + "超过库存" + stock),
+                // 一人一单
+                () -> assertEquals(orders.size(), distinctUsers, "存在同一用户的多个订单"),
+                () -> assertTrue(result.successByUser.values().stream().allMatch(n -> n.sum() == 1),
+                        "存在同一用户多次抢购成功"),
+                // 抢到的订单全部写入数据库，没有多余的订单
+                () -> assertEquals(result.orderIds, persistedIds, "返回的订单与数据库中的订单不一致"),
+                // 库存一致
+                () -> assertEquals(stock - orders.size(), seckillVoucher.getStock().intValue(), "数据库库存不一致"),
+                () -> assertEquals(String.valueOf(stock - accepted), String.valueOf(redisStock), "redis库存不一致")
+        );
+    }
+
+    private void report(Long voucherId, LoadResult result, long persisted, long settleMillis) {
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("time", LocalDateTime.now().toString());
+        report.put("voucherId", voucherId);
+        report.put("users", users);
+        report.put("stock", stock);
+        report.put("segments", segments);
+        report.put("concurrency", concurrency);
+        report.put("requests", result.latency.getCount());
+        report.put("elapsedMillis", result.elapsedMillis);
+        report.put("throughput", Math.round(result.latency.getCount() * 1000.0 / Math.max(1, result.elapsedMillis)));
+        report.put("latencyMillis", result.latency.summary());
+        Map<String, Long> outcomes = new TreeMap<>();
+        result.outcomes.forEach((outcome, count) -> outcomes.put(outcome, count.sum()));
+        report.put("outcomes", outcomes);
+        report.put("accepted", result.orderIds.size());
+        report.put("persisted", persisted);
+        report.put("settleMillis", settleMillis);
+
+        String json = JSONUtil.toJsonPrettyStr(report);
+        System.out.println(json);
+        File file = new File("target/loadtest/seckill-" + LocalDateTime.now().format(REPORT_TIME) + ".json");
+        FileUtil.writeUtf8String(json, file);
+        System.out.println("压测报告已写入：" + file.getAbsolutePath());
+    }
+
+    private long countOrders(Long voucherId) {
+        return voucherOrderService.query().eq("voucher_id", voucherId).count();
+    }
+
+    private void cleanUp(Long voucherId, List<String> tokens) {
+        voucherOrderService.remove(voucherOrderService.query().eq("voucher_id", voucherId).getWrapper());
+        seckillVoucherService.removeById(voucherId);
+        voucherService.removeById(voucherId);
+        List<String> keys = tokens.stream().map(token -> LOGIN_USER_KEY + token).collect(Collectors.toList());
+        keys.add(SeckillKeys.descriptorKey(voucherId));
+        keys.add(SeckillKeys.segmentsKey(voucherId));
+        keys.addAll(SeckillKeys.segmentDescriptorKeys(voucherId, segments));
+        keys.addAll(SeckillKeys.stockKeys(voucherId, segments));
+        keys.addAll(SeckillKeys.soldKeys(voucherId, segments));
+        keys.addAll(SeckillKeys.orderKeys(voucherId, segments));
+        stringRedisTemplate.delete(keys);
+    }
+
+    private static class LoadResult {
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final Map<String, LongAdder> outcomes = new ConcurrentHashMap<>();
+        private final Set<Long> orderIds = ConcurrentHashMap.newKeySet();
+        private final Map<Long, LongAdder> successByUser = new ConcurrentHashMap<>();
+        private long elapsedMillis;
+    }
+}
@@ -0,0 +1,83 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_TTL;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 模拟10万个key在同一时刻写入缓存后的过期时间分布
+ */
+class CacheExpirePolicyTest {
+
+    private static final int KEY_COUNT = 100_000;
+
+    @Test
+    void jitterSpreadsExpirations() {
+        CacheExpirePolicy policy = new CacheExpirePolicy();
+        int[] histogram = simulate(policy);
+        int peak = 0;
+        for (int count : histogram) {
+            peak = Math.max(peak, count);
+        }
+        // 30分钟 + 0~10%的抖动，过期时间分散在30~33分钟内，每分钟约1/3的key
+        assertEquals(0, histogram[29]);
+        assertEquals(0, histogram[33]);
+        assertTrue(peak < KEY_COUNT * 0.4, "过期峰值过高：" + peak);
+    }
+
+    @Test
+    void withoutJitterAllKeysExpireTogether() {
+        CacheExpirePolicy policy = new CacheExpirePolicy();
+        policy.getDefaults().setJitter(0.0);
+        int[] histogram = simulate(policy);
+        assertEquals(KEY_COUNT, histogram[30]);
+    }
+
+    @Test
+    void longestPrefixRuleWins() {
+        CacheExpirePolicy policy = new CacheExpirePolicy()
+                .rule("cache:", new CacheExpirePolicy.ExpireRule().setTtl(Duration.ofMinutes(5)).setJitter(0.0))
+                .rule(CACHE_SHOP_KEY, new CacheExpirePolicy.ExpireRule()
+                        .setTtl(Duration.ofMinutes(60)).setJitter(0.0).setMaxStale(Duration.ofMinutes(10)));
+        policy.getDefaults().setJitter(0.0);
+        assertEquals(TimeUnit.MINUTES.toMillis(60), policy.ttlMillis(CACHE_SHOP_KEY + 1, 1L, TimeUnit.MINUTES));
+        assertEquals(TimeUnit.MINUTES.toMillis(5), policy.ttlMillis("cache:user:1", 1L, TimeUnit.MINUTES));
+        assertEquals(TimeUnit.MINUTES.toMillis(1), policy.ttlMillis("other:1", 1L, TimeUnit.MINUTES));
+        assertEquals(TimeUnit.MINUTES.toMillis(10), policy.maxStaleMillis(CACHE_SHOP_KEY + 1));
+        assertEquals(-1, policy.maxStaleMillis("cache:user:1"));
+    }
+
+    /**
+     * 所有key在0时刻写入，统计每分钟过期的key数量
+     */
+    private static int[] simulate(CacheExpirePolicy policy) {
+        int[] histogram = new int[40];
+        for (int i = 0; i < KEY_COUNT; i++) {
+            long ttl = policy.ttlMillis(CACHE_SHOP_KEY + i, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+            histogram[(int) (ttl / TimeUnit.MINUTES.toMillis(1))]++;
+        }
+        StringBuilder report = new StringBuilder();
+        for (int minute = 0; minute < histogram.length; minute++) {
+            if (histogram[minute] > 0) {
+                report.append(String.format("%2d min: %6d %s%n",
+                        minute, histogram[minute], repeat('#', histogram[minute] * 50 / KEY_COUNT)));
+            }
+        }
+        System.out.print(report);
+        return histogram;
+    }
+
+    private static String repeat(char c, int n) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < n; i++) {
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,70 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TokenBucketTest {
+
+    @Test
+    void burstThenRefill() {
+        TokenBucket bucket = new TokenBucket(10, 5, 1);
+        long now = System.nanoTime();
+        // 容量为5，之后每100毫秒产生一个令牌
+        for (int i = 0; i < 5; i++) {
+            assertTrue(bucket.tryAcquire(now));
+        }
+        assertFalse(bucket.tryAcquire(now));
+        assertFalse(bucket.tryAcquire(now + TimeUnit.MILLISECONDS.toNanos(50)));
+        assertTrue(bucket.tryAcquire(now + TimeUnit.MILLISECONDS.toNanos(100)));
+        assertFalse(bucket.tryAcquire(now + TimeUnit.MILLISECONDS.toNanos(100)));
+        assertFalse(bucket.isFull(now + TimeUnit.MILLISECONDS.toNanos(100)));
+        assertTrue(bucket.isFull(now + TimeUnit.SECONDS.toNanos(1)));
+    }
+
+    @Test
+    void stripedBucketNeverExceedsCapacity() throws InterruptedException {
+        int threads = 8;
+        TokenBucket bucket = new TokenBucket(0.001, 1000, threads);
+        long now = System.nanoTime();
+        LongAdder allowed = new LongAdder();
+        CountDownLatch latch = new CountDownLatch(threads);
+        ExecutorService es = Executors.newFixedThreadPool(threads);
+        for (int t = 0; t < threads; t++) {
+            es.submit(() -> {
+                for (int i = 0; i < 1000; i++) {
+                    if (bucket.tryAcquire(now)) {
+                        allowed.increment();
+                    }
+                }
+                latch.countDown();
+            });
+        }
+        latch.await();
+        es.shutdown();
+        // 每个分片容量为125，请求在分片间不均匀时可能少放行，但不会超过总容量
+        assertTrue(allowed.sum() <= 1000);
+        assertTrue(allowed.sum() >= 900, "放行过少：" + allowed.sum());
+    }
+
+    @Test
+    void stripesNeverExceedBurst() {
+        TokenBucket bucket = new TokenBucket(1, 2, 16);
+        long now = System.nanoTime();
+        int allowed = 0;
+        for (int i = 0; i < 10; i++) {
+            if (bucket.tryAcquire(now)) {
+                allowed++;
+            }
+        }
+        assertEquals(2, allowed);
+    }
+}